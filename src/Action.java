@@ -2,4 +2,11 @@ interface Action {
 
     public void executeAction(EventScheduler eventScheduler);
 
+    // whether, as the world stands now, running this only touches cells
+    // within RegionTicker.REACH of its entity, reads included, and nothing
+    // shared
+    public default boolean isLocal() {
+        return false;
+    }
+
 }
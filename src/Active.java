@@ -1,4 +1,10 @@
 interface Active {
     public int getActionPeriod();
     public void executeActivity(WorldModel world, ImageStore imageStore, EventScheduler scheduler);
+    public Action getActivityAction(WorldModel world, ImageStore imageStore);
+
+    // see Action.isLocal
+    public default boolean isLocalActivity(WorldModel world) {
+        return false;
+    }
 }
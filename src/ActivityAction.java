@@ -18,6 +18,12 @@ public class ActivityAction implements Action{
         executeActivityAction(scheduler);
     }
 
+    @Override
+    public boolean isLocal() {
+        return this.entity instanceof Active &&
+                ((Active) this.entity).isLocalActivity(this.world);
+    }
+
     private void executeActivityAction(EventScheduler scheduler) {
         // the entity that belongs to this action executes its activity
         if (this.entity instanceof Active) {
@@ -1,4 +1,8 @@
 public interface Animated {
     public int getAnimationPeriod();
     public int getRepeatCount();
+    public Action getAnimationAction(int repeatCount);
+
+    // derive frames from the clock from now on instead of from events
+    public void startAnimation(AnimationClock animationClock);
 }
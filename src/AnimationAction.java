@@ -13,11 +13,25 @@ public class AnimationAction implements Action{
         this.repeatCount = repeatCount;
     }
 
+    public int getRepeatCount() {
+        return this.repeatCount;
+    }
+
+    public void setRepeatCount(int repeatCount) {
+        this.repeatCount = repeatCount;
+    }
+
     // call executeAnimationAction
     public void executeAction(EventScheduler scheduler) {
         executeAnimationAction(scheduler);
     }
 
+    // only the entity's own frame changes
+    @Override
+    public boolean isLocal() {
+        return true;
+    }
+
     private void executeAnimationAction(EventScheduler scheduler) {
         if (this.entity instanceof Animated) {
             Animated animatedEntity = (Animated) this.entity;
@@ -26,8 +40,9 @@ public class AnimationAction implements Action{
 
             // if this action has a repeat count
             if (this.repeatCount != 1) {
-                // schedule another animation action with a repeat count 1 lower
-                scheduler.scheduleEvent(this.entity, Entity.createAnimationAction(Math.max(this.repeatCount - 1, 0), this.entity), animatedEntity.getAnimationPeriod());
+                // re-arm this action with a repeat count 1 lower
+                this.repeatCount = Math.max(this.repeatCount - 1, 0);
+                scheduler.scheduleEvent(this.entity, this, animatedEntity.getAnimationPeriod());
             }
         }
     }
@@ -0,0 +1,31 @@
+/*
+   Works out an animated entity's current frame from the simulation clock,
+   so animations need no events of their own.  The frame count follows the
+   same rules as AnimationAction: a repeat count of 0 animates forever,
+   otherwise the animation stops after that many frames.
+*/
+final class AnimationClock {
+    private SimulationClock clock;
+    private double timeScale;
+
+    public AnimationClock(SimulationClock clock, double timeScale) {
+        this.clock = clock;
+        this.timeScale = timeScale;
+    }
+
+    public long currentTime() {
+        return this.clock.currentTime();
+    }
+
+    public int imageIndex(long startTime, int animationPeriod, int repeatCount,
+                          int imageCount) {
+        long period = Math.max(1, (long) (animationPeriod * this.timeScale));
+        long frames = Math.max(0, this.clock.currentTime() - startTime) / period;
+
+        if (repeatCount > 0) {
+            frames = Math.min(frames, repeatCount);
+        }
+
+        return (int) (frames % imageCount);
+    }
+}
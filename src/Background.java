@@ -12,4 +12,9 @@ final class Background
       this.id = id;
       this.images = images;
    }
+
+   public String getId()
+   {
+      return this.id;
+   }
 }
@@ -0,0 +1,139 @@
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import processing.core.PApplet;
+import processing.core.PGraphics;
+
+/*
+   The world's background as the view has seen it, pre-rendered into
+   offscreen tiles of TILE_CELLS by TILE_CELLS cells, so the view can copy
+   any rectangle of it with one image() call per tile it overlaps.  The
+   layer only learns the background from render snapshots: update redraws
+   just the cells whose tile changed since they were last seen, and a cell
+   that has never been seen is blank.  At most MAX_TILES tiles are kept,
+   the least recently used dropped first.
+*/
+final class BackgroundLayer {
+    private static final int TILE_CELLS = 32;
+    // 4MB each with 32 pixel cells
+    private static final int MAX_TILES = 16;
+
+    private final PApplet screen;
+    private final ImageStore imageStore;
+    private final int cellWidth;
+    private final int cellHeight;
+    private final int worldRows;
+    private final int worldCols;
+    private final int tileCols;
+
+    private final LinkedHashMap<Integer, Tile> tiles;
+
+    public BackgroundLayer(PApplet screen, int worldRows, int worldCols,
+                           ImageStore imageStore, int cellWidth, int cellHeight) {
+        this.screen = screen;
+        this.worldRows = worldRows;
+        this.worldCols = worldCols;
+        this.imageStore = imageStore;
+        this.cellWidth = cellWidth;
+        this.cellHeight = cellHeight;
+        this.tileCols = (worldCols + TILE_CELLS - 1) / TILE_CELLS;
+        this.tiles = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    // takes in the background of a snapshot; not while drawing into a target
+    public void update(RenderSnapshot.Frame frame) {
+        for (int cell = 0; cell < frame.backgrounds.length; cell++) {
+            int sprite = frame.backgrounds[cell];
+            if (sprite == ImageStore.NO_SPRITE) {
+                continue;
+            }
+            int col = frame.col + cell % frame.numCols;
+            int row = frame.row + cell / frame.numCols;
+            Tile tile = tile(col / TILE_CELLS, row / TILE_CELLS);
+            int tileCell = (row % TILE_CELLS) * TILE_CELLS + col % TILE_CELLS;
+            if (tile.sprites[tileCell] != sprite) {
+                tile.sprites[tileCell] = sprite;
+                tile.stale.set(tileCell);
+            }
+        }
+
+        for (Tile tile : this.tiles.values()) {
+            if (!tile.stale.isEmpty()) {
+                redraw(tile);
+            }
+        }
+    }
+
+    // copies the cells [col, col + numCols) x [row, row + numRows) to x, y
+    public void draw(PGraphics target, int col, int row, int numCols,
+                     int numRows, int x, int y) {
+        int endCol = Math.min(col + numCols, this.worldCols);
+        int endRow = Math.min(row + numRows, this.worldRows);
+        for (int tileRow = row / TILE_CELLS; tileRow * TILE_CELLS < endRow; tileRow++) {
+            for (int tileCol = col / TILE_CELLS; tileCol * TILE_CELLS < endCol; tileCol++) {
+                int left = Math.max(col, tileCol * TILE_CELLS);
+                int top = Math.max(row, tileRow * TILE_CELLS);
+                int right = Math.min(endCol, (tileCol + 1) * TILE_CELLS);
+                int bottom = Math.min(endRow, (tileRow + 1) * TILE_CELLS);
+
+                PGraphics graphics = tile(tileCol, tileRow).graphics;
+                int u = (left - tileCol * TILE_CELLS) * this.cellWidth;
+                int v = (top - tileRow * TILE_CELLS) * this.cellHeight;
+                int width = (right - left) * this.cellWidth;
+                int height = (bottom - top) * this.cellHeight;
+                target.image(graphics,
+                        x + (left - col) * this.cellWidth,
+                        y + (top - row) * this.cellHeight,
+                        width, height, u, v, u + width, v + height);
+            }
+        }
+    }
+
+    private Tile tile(int tileCol, int tileRow) {
+        int key = tileRow * this.tileCols + tileCol;
+        Tile tile = this.tiles.get(key);
+        if (tile == null) {
+            tile = new Tile(this.screen.createGraphics(TILE_CELLS * this.cellWidth,
+                    TILE_CELLS * this.cellHeight));
+            this.tiles.put(key, tile);
+            evict();
+        }
+        return tile;
+    }
+
+    private void redraw(Tile tile) {
+        tile.graphics.beginDraw();
+        for (int cell = tile.stale.nextSetBit(0); cell >= 0;
+             cell = tile.stale.nextSetBit(cell + 1)) {
+            this.imageStore.drawSprite(tile.graphics, tile.sprites[cell],
+                    (cell % TILE_CELLS) * this.cellWidth,
+                    (cell / TILE_CELLS) * this.cellHeight);
+        }
+        tile.graphics.endDraw();
+        tile.stale.clear();
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<Integer, Tile>> eldest = this.tiles.entrySet().iterator();
+        while (this.tiles.size() > MAX_TILES) {
+            eldest.next();
+            eldest.remove();
+        }
+    }
+
+    private static final class Tile {
+        private final PGraphics graphics;
+        private final int[] sprites;
+        private final BitSet stale;
+
+        public Tile(PGraphics graphics) {
+            this.graphics = graphics;
+            this.sprites = new int[TILE_CELLS * TILE_CELLS];
+            Arrays.fill(this.sprites, ImageStore.NO_SPRITE);
+            this.stale = new BitSet(TILE_CELLS * TILE_CELLS);
+        }
+    }
+}
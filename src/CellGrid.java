@@ -0,0 +1,22 @@
+import java.nio.IntBuffer;
+
+/*
+   A numRows x numCols grid of ints addressed by row-major cell index
+   (y * numCols + x).  Cells nobody has written read as the grid's fill
+   value.
+*/
+interface CellGrid {
+    public int get(int cell);
+
+    public void set(int cell, int value);
+
+    // sets the cell to value only if it still holds expected, atomically
+    // with respect to other compareAndSet calls on the grid
+    public boolean compareAndSet(int cell, int expected, int value);
+
+    // bulk copies of the cells from start on, as many as the buffer has room
+    // for or holds
+    public void load(int start, IntBuffer source);
+
+    public void save(int start, IntBuffer target);
+}
@@ -0,0 +1,78 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/*
+   Writes the world and every pending timer to a snapshot file once per
+   interval of clock time.  On the simulation thread, between ticks, it
+   only brings a WorldSnapshot.Mirror up to date with the entities that
+   have changed since the last checkpoint; the background grid is copied
+   again only when it has changed, and the copy is shared read-only with
+   the writer.  The snapshot is put together from the mirror and written
+   on a background thread, and a checkpoint that comes due while the
+   previous one is still being written is skipped, its changes carried
+   over to the next.
+*/
+final class Checkpointer {
+    private final WorldModel world;
+    private final EventScheduler scheduler;
+    private final File file;
+    private final long interval;
+    private final ExecutorService writer;
+    private final WorldSnapshot.Mirror mirror;
+
+    private long nextCheckpoint;
+    private Future<?> pending;
+    private int[] background;
+    private int backgroundVersion;
+
+    public Checkpointer(WorldModel world, EventScheduler scheduler, File file,
+                        long interval) {
+        this.world = world;
+        this.scheduler = scheduler;
+        this.file = file;
+        this.interval = interval;
+        this.nextCheckpoint = scheduler.getClock().currentTime() + interval;
+        this.mirror = new WorldSnapshot.Mirror(world);
+        this.writer = Executors.newSingleThreadExecutor(task -> {
+            Thread thread = new Thread(task, "checkpoint writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // call between ticks, never while events are being processed
+    public void update(long time) {
+        if (time < this.nextCheckpoint ||
+                (this.pending != null && !this.pending.isDone())) {
+            return;
+        }
+        this.nextCheckpoint = time + this.interval;
+
+        if (this.background == null ||
+                this.backgroundVersion != this.world.getBackgroundVersion()) {
+            this.background = WorldSnapshot.copyBackground(this.world);
+            this.backgroundVersion = this.world.getBackgroundVersion();
+        }
+
+        this.mirror.update(this.scheduler.getClock().currentTime());
+        int[] background = this.background;
+        this.pending = this.writer.submit(() -> {
+            try {
+                this.mirror.snapshot(background).write(this.file);
+            } catch (IOException e) {
+                System.err.println(String.format("checkpoint failed: %s",
+                        e.getMessage()));
+            }
+        });
+    }
+
+    // lets a checkpoint that is being written finish
+    public void close() throws InterruptedException {
+        this.writer.shutdown();
+        this.writer.awaitTermination(1, TimeUnit.MINUTES);
+    }
+}
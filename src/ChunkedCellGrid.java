@@ -0,0 +1,226 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/*
+   Grid split into CHUNK_SIZE x CHUNK_SIZE chunks.  A chunk is only
+   allocated once a cell in it is set to something other than the fill
+   value, and at most maxResident chunks are kept in memory: touching one
+   more evicts the least recently used chunk to a swap file, from which it
+   is read back the next time any of its cells is touched.  Each chunk has
+   a fixed place in the swap file, and a chunk that holds nothing but the
+   fill value is dropped rather than written.
+*/
+final class ChunkedCellGrid implements CellGrid {
+    public static final int CHUNK_BITS = 6;
+    public static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+    private static final int CHUNK_CELLS = CHUNK_SIZE * CHUNK_SIZE;
+    private static final long CHUNK_BYTES = CHUNK_CELLS * Integer.BYTES;
+
+    private static final int NO_CHUNK = -1;
+
+    private final int numCols;
+    private final int chunkCols;
+    private final int fill;
+    private final int maxResident;
+
+    // resident chunks, least recently used first
+    private final LinkedHashMap<Integer, int[]> resident;
+    private final BitSet onDisk;
+    private final BitSet dirty;
+    private final FileChannel swap;
+    private final ByteBuffer buffer;
+
+    // the chunk touched last, so runs of nearby cells skip the LRU map; its
+    // recency is brought up to date when another chunk is touched
+    private int lastChunk = NO_CHUNK;
+    private int[] lastCells;
+
+    public ChunkedCellGrid(int numRows, int numCols, int fill, int maxResident) {
+        Math.multiplyExact(numRows, numCols);
+        this.numCols = numCols;
+        this.chunkCols = (numCols + CHUNK_MASK) >> CHUNK_BITS;
+        this.fill = fill;
+        this.maxResident = Math.max(1, maxResident);
+        this.resident = new LinkedHashMap<>(16, 0.75f, true);
+        this.onDisk = new BitSet();
+        this.dirty = new BitSet();
+        this.buffer = ByteBuffer.allocateDirect((int) CHUNK_BYTES);
+
+        try {
+            File file = File.createTempFile("world", ".chunks");
+            file.deleteOnExit();
+            this.swap = new RandomAccessFile(file, "rw").getChannel();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public int get(int cell) {
+        int x = cell % this.numCols;
+        int y = cell / this.numCols;
+        int[] cells = chunk(chunkIndex(x, y), false);
+        return cells == null ? this.fill : cells[offset(x, y)];
+    }
+
+    @Override
+    public void set(int cell, int value) {
+        int x = cell % this.numCols;
+        int y = cell / this.numCols;
+        int chunk = chunkIndex(x, y);
+        int[] cells = chunk(chunk, value != this.fill);
+        if (cells != null) {
+            cells[offset(x, y)] = value;
+            this.dirty.set(chunk);
+        }
+    }
+
+    // paging is not thread-safe anyway, so this only has to be atomic
+    // against itself
+    @Override
+    public synchronized boolean compareAndSet(int cell, int expected, int value) {
+        if (get(cell) != expected) {
+            return false;
+        }
+        set(cell, value);
+        return true;
+    }
+
+    @Override
+    public void load(int start, IntBuffer source) {
+        for (int cell = start; source.hasRemaining(); cell++) {
+            set(cell, source.get());
+        }
+    }
+
+    @Override
+    public void save(int start, IntBuffer target) {
+        for (int cell = start; target.hasRemaining(); cell++) {
+            target.put(get(cell));
+        }
+    }
+
+    public int residentChunks() {
+        return this.resident.size();
+    }
+
+    private int chunkIndex(int x, int y) {
+        return (y >> CHUNK_BITS) * this.chunkCols + (x >> CHUNK_BITS);
+    }
+
+    private static int offset(int x, int y) {
+        return ((y & CHUNK_MASK) << CHUNK_BITS) | (x & CHUNK_MASK);
+    }
+
+    // the chunk's cells, paged in if needed; null for a chunk that is all
+    // fill unless create is set
+    private int[] chunk(int chunk, boolean create) {
+        if (chunk == this.lastChunk) {
+            return this.lastCells;
+        }
+        if (this.lastChunk != NO_CHUNK) {
+            // the cells read and written through the fast path count as uses
+            this.resident.get(this.lastChunk);
+        }
+
+        int[] cells = this.resident.get(chunk);
+        if (cells == null) {
+            if (this.onDisk.get(chunk)) {
+                cells = read(chunk);
+            } else if (create) {
+                cells = new int[CHUNK_CELLS];
+                if (this.fill != 0) {
+                    Arrays.fill(cells, this.fill);
+                }
+            } else {
+                return null;
+            }
+            this.resident.put(chunk, cells);
+            evictOverflow();
+        }
+
+        this.lastChunk = chunk;
+        this.lastCells = cells;
+        return cells;
+    }
+
+    private void evictOverflow() {
+        Iterator<Map.Entry<Integer, int[]>> eldest =
+                this.resident.entrySet().iterator();
+        while (this.resident.size() > this.maxResident) {
+            Map.Entry<Integer, int[]> entry = eldest.next();
+            eldest.remove();
+            evict(entry.getKey(), entry.getValue());
+        }
+    }
+
+    private void evict(int chunk, int[] cells) {
+        if (chunk == this.lastChunk) {
+            this.lastChunk = NO_CHUNK;
+            this.lastCells = null;
+        }
+        if (!this.dirty.get(chunk)) {
+            return;
+        }
+        this.dirty.clear(chunk);
+
+        if (isAllFill(cells)) {
+            this.onDisk.clear(chunk);
+        } else {
+            write(chunk, cells);
+            this.onDisk.set(chunk);
+        }
+    }
+
+    private boolean isAllFill(int[] cells) {
+        for (int value : cells) {
+            if (value != this.fill) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int[] read(int chunk) {
+        this.buffer.clear();
+        try {
+            long position = chunk * CHUNK_BYTES;
+            while (this.buffer.hasRemaining()) {
+                if (this.swap.read(this.buffer, position + this.buffer.position()) < 0) {
+                    throw new IOException("swap file truncated");
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        this.buffer.flip();
+
+        int[] cells = new int[CHUNK_CELLS];
+        this.buffer.asIntBuffer().get(cells);
+        return cells;
+    }
+
+    private void write(int chunk, int[] cells) {
+        this.buffer.clear();
+        this.buffer.asIntBuffer().put(cells);
+        try {
+            long position = chunk * CHUNK_BYTES;
+            while (this.buffer.hasRemaining()) {
+                this.swap.write(this.buffer, position + this.buffer.position());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
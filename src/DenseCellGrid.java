@@ -0,0 +1,43 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+final class DenseCellGrid implements CellGrid {
+    private static final VarHandle CELLS =
+            MethodHandles.arrayElementVarHandle(int[].class);
+
+    private final int[] cells;
+
+    public DenseCellGrid(int numRows, int numCols, int fill) {
+        this.cells = new int[Math.multiplyExact(numRows, numCols)];
+        if (fill != 0) {
+            Arrays.fill(this.cells, fill);
+        }
+    }
+
+    @Override
+    public int get(int cell) {
+        return this.cells[cell];
+    }
+
+    @Override
+    public void set(int cell, int value) {
+        this.cells[cell] = value;
+    }
+
+    @Override
+    public boolean compareAndSet(int cell, int expected, int value) {
+        return CELLS.compareAndSet(this.cells, cell, expected, value);
+    }
+
+    @Override
+    public void load(int start, IntBuffer source) {
+        source.get(this.cells, start, source.remaining());
+    }
+
+    @Override
+    public void save(int start, IntBuffer target) {
+        target.put(this.cells, start, target.remaining());
+    }
+}
@@ -1,5 +1,4 @@
 import java.util.List;
-import java.util.Optional;
 import java.util.Random;
 
 import processing.core.PImage;
@@ -64,9 +63,31 @@ interface Entity {
 
     public static final Random rand = new Random();
 
+    // kind ids kept in the store, as indexes into KINDS
+    public static final int BLACKSMITH_KIND = 0;
+    public static final int MINER_KIND = 1;
+    public static final int MINERFULL_KIND = 2;
+    public static final int OBSTACLE_KIND = 3;
+    public static final int ORE_KIND = 4;
+    public static final int OREBLOB_KIND = 5;
+    public static final int QUAKE_KIND = 6;
+    public static final int VEIN_KIND = 7;
+    public static final String[] KINDS = {"BLACKSMITH", "MINER", "MINERFULL",
+            "OBSTACLE", "ORE", "OREBLOB", "QUAKE", "VEIN"};
 
+
+    public int getSlot();
+
+    // the store of the world the entity was made for; see EntityView
+    public EntityStore getStore();
+
+    // allocates a Point; the hot paths read getX and getY instead
     public Point getPosition();
 
+    public int getX();
+
+    public int getY();
+
     public void setPosition(Point point);
 
     public String getKind();
@@ -77,7 +98,12 @@ interface Entity {
 
     public int getImageIndex();
 
-    public static Action createAnimationAction(int repeatCount, Entity entity) {
+    // bumped by EventScheduler.unscheduleAllEvents to cancel pending events
+    public int getGeneration();
+
+    public void incrementGeneration();
+
+    public static AnimationAction createAnimationAction(int repeatCount, Entity entity) {
         return new AnimationAction(entity, null, null, repeatCount);
     }
 
@@ -86,72 +112,52 @@ interface Entity {
         return new ActivityAction(entity, world, imageStore, 0);
     }
 
-    public static Optional<Entity> nearestEntity(List<Entity> entities, Point pos) {
-        if (entities.isEmpty()) {
-            return Optional.empty();
-        } else {
-            Entity nearest = entities.get(0);
-            int nearestDistance = Point.distanceSquared(nearest.getPosition(), pos);
-
-            for (Entity other : entities) {
-                int otherDistance = Point.distanceSquared(other.getPosition(), pos);
-
-                if (otherDistance < nearestDistance) {
-                    nearest = other;
-                    nearestDistance = otherDistance;
-                }
-            }
-
-            return Optional.of(nearest);
-        }
-    }
-
-    public static Entity createBlacksmith(String id, Point position,
+    public static Entity createBlacksmith(EntityStore store, String id, Point position,
                                           List<PImage> images) {
-        return new Blacksmith(id, position, images,
+        return new Blacksmith(store, id, position, images,
                 0, 0, 0, 0);
     }
 
-    public static Entity createMinerFull(String id, int resourceLimit,
+    public static Entity createMinerFull(EntityStore store, String id, int resourceLimit,
                                          Point position, int actionPeriod, int animationPeriod,
                                          List<PImage> images) {
-        return new MinerFull(id, position, images,
+        return new MinerFull(store, id, position, images,
                 resourceLimit, resourceLimit, actionPeriod, animationPeriod);
     }
 
-    public static Entity createMinerNotFull(String id, int resourceLimit,
+    public static Entity createMinerNotFull(EntityStore store, String id, int resourceLimit,
                                             Point position, int actionPeriod, int animationPeriod,
                                             List<PImage> images) {
-        return new Miner(id, position, images,
+        return new Miner(store, id, position, images,
                 resourceLimit, 0, actionPeriod, animationPeriod);
     }
 
-    public static Entity createObstacle(String id, Point position,
+    public static Entity createObstacle(EntityStore store, String id, Point position,
                                         List<PImage> images) {
-        return new Obstacle(id, position, images,
+        return new Obstacle(store, id, position, images,
                 0, 0, 0, 0);
     }
 
-    public static Entity createOre(String id, Point position, int actionPeriod,
+    public static Entity createOre(EntityStore store, String id, Point position, int actionPeriod,
                                    List<PImage> images) {
-        return new Ore(id, position, images, 0, 0,
+        return new Ore(store, id, position, images, 0, 0,
                 actionPeriod, 0);
     }
 
-    public static Entity createOreBlob(String id, Point position,
+    public static Entity createOreBlob(EntityStore store, String id, Point position,
                                        int actionPeriod, int animationPeriod, List<PImage> images) {
-        return new OreBlob(id, position, images,
+        return new OreBlob(store, id, position, images,
                 0, 0, actionPeriod, animationPeriod);
     }
 
-    public static Entity createQuake(Point position, List<PImage> images) {
-        return new Quake(QUAKE_ID, position, images,
+    public static Entity createQuake(EntityStore store, Point position, List<PImage> images) {
+        return new Quake(store, QUAKE_ID, position, images,
                 0, 0, QUAKE_ACTION_PERIOD, QUAKE_ANIMATION_PERIOD);
     }
 
-    public static Entity createVein(String id, Point position, int actionPeriod,
+    public static Entity createVein(EntityStore store, String id, Point position, int actionPeriod,
                                     List<PImage> images) {
-        return new Vein(id, position, images, 0, 0,
+        return new Vein(store, id, position, images, 0, 0,
                 actionPeriod, 0);
     }
 
@@ -0,0 +1,401 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import processing.core.PImage;
+
+/*
+   Struct-of-arrays storage for the entities of one world; each WorldModel
+   has its own, and an entity is made with the store of the world it is
+   for.  Each entity owns one slot, and its numeric state lives in parallel
+   primitive columns indexed by that slot; the entity objects themselves
+   are thin EntityView handles.  The columns are heap int[]/long[] backed
+   buffers by default, or direct (off-heap) buffers after setOffHeap(true).
+
+   Freed slots are reused.  A slot's generation is bumped when it is freed
+   and never reset, so events stamped for a previous owner of the slot stay
+   dead.  Views get no such protection: once its entity has been removed
+   from the world a view must not be used, as its slot may already belong
+   to another entity.
+
+   Every write to what a snapshot records stamps the slot with the current
+   epoch, and the first stamp of an epoch puts the slot on a change list,
+   so a checkpoint reads back only the slots changed since the last one
+   (takeChanges).  A slot is listed once per epoch, so the list never
+   outgrows the store.  For the same reason the scheduler keeps the time
+   of each slot's pending activity and animation events here, along with
+   the order in which the entities joined the world.
+*/
+final class EntityStore {
+    private static final int INITIAL_CAPACITY = 256;
+
+    // marks an entity whose frames are advanced by events, not the clock
+    public static final long NO_ANIMATION_START = Long.MIN_VALUE;
+
+    // marks an entity that has not found itself idle since it last moved
+    public static final long NOT_IDLE = Long.MIN_VALUE;
+
+    // marks a slot with no pending event of that kind
+    public static final long NO_EVENT = Long.MIN_VALUE;
+
+    // marks a slot whose entity has not been added to a world
+    public static final long NOT_JOINED = -1;
+
+    private boolean offHeap;
+    private int capacity;
+    private int size;
+    private int[] freeSlots;
+    private int freeCount;
+
+    private IntBuffer x;
+    private IntBuffer y;
+    private IntBuffer kind;
+    private IntBuffer imageIndex;
+    private IntBuffer actionPeriod;
+    private IntBuffer animationPeriod;
+    private IntBuffer resourceLimit;
+    private IntBuffer resourceCount;
+    private IntBuffer generation;
+    private LongBuffer animationStart;
+    private LongBuffer idleStamp;
+    private LongBuffer joined;
+    private LongBuffer activityDue;
+    private LongBuffer animationDue;
+    private IntBuffer animationRepeats;
+    private IntBuffer changed;
+
+    // references that cannot live in a primitive column
+    private Object[] views;
+    private Object[] ids;
+    private Object[] images;
+    private Object[] activityActions;
+    private Object[] animationActions;
+
+    // all clock-animated entities share the scheduler's animation clock
+    private AnimationClock animationClock;
+
+    private long joins;
+    private int epoch = 1;
+    private int[] changedSlots;
+    private final AtomicInteger changeCount = new AtomicInteger();
+
+    public EntityStore() {
+        this.capacity = INITIAL_CAPACITY;
+        this.freeSlots = new int[INITIAL_CAPACITY];
+        allocateColumns(INITIAL_CAPACITY);
+    }
+
+    public boolean isOffHeap() {
+        return this.offHeap;
+    }
+
+    public void setOffHeap(boolean offHeap) {
+        if (offHeap != this.offHeap) {
+            this.offHeap = offHeap;
+            allocateColumns(this.capacity);
+        }
+    }
+
+    public int allocate(EntityView view, int kind, String id, Point position,
+                        List<PImage> images, int resourceLimit, int resourceCount,
+                        int actionPeriod, int animationPeriod) {
+        int slot;
+        if (this.freeCount > 0) {
+            slot = this.freeSlots[--this.freeCount];
+        } else {
+            if (this.size == this.capacity) {
+                this.capacity *= 2;
+                allocateColumns(this.capacity);
+            }
+            slot = this.size++;
+        }
+
+        this.views[slot] = view;
+        this.ids[slot] = id;
+        this.images[slot] = images;
+        this.activityActions[slot] = null;
+        this.animationActions[slot] = null;
+        this.x.put(slot, position.x);
+        this.y.put(slot, position.y);
+        this.kind.put(slot, kind);
+        this.imageIndex.put(slot, 0);
+        this.actionPeriod.put(slot, actionPeriod);
+        this.animationPeriod.put(slot, animationPeriod);
+        this.resourceLimit.put(slot, resourceLimit);
+        this.resourceCount.put(slot, resourceCount);
+        this.animationStart.put(slot, NO_ANIMATION_START);
+        this.idleStamp.put(slot, NOT_IDLE);
+        this.joined.put(slot, NOT_JOINED);
+        this.activityDue.put(slot, NO_EVENT);
+        this.animationDue.put(slot, NO_EVENT);
+        markChanged(slot);
+        return slot;
+    }
+
+    public void free(int slot) {
+        if (this.views[slot] == null) {
+            return;
+        }
+
+        this.views[slot] = null;
+        this.images[slot] = null;
+        this.activityActions[slot] = null;
+        this.animationActions[slot] = null;
+        this.joined.put(slot, NOT_JOINED);
+        incrementGeneration(slot);
+
+        if (this.freeCount == this.freeSlots.length) {
+            this.freeSlots = Arrays.copyOf(this.freeSlots, this.freeCount * 2);
+        }
+        this.freeSlots[this.freeCount++] = slot;
+    }
+
+    public Entity getView(int slot) {
+        return (Entity) this.views[slot];
+    }
+
+    public int getX(int slot) {
+        return this.x.get(slot);
+    }
+
+    public int getY(int slot) {
+        return this.y.get(slot);
+    }
+
+    public void setPosition(int slot, int x, int y) {
+        this.x.put(slot, x);
+        this.y.put(slot, y);
+        markChanged(slot);
+    }
+
+    public int getKind(int slot) {
+        return this.kind.get(slot);
+    }
+
+    public String getId(int slot) {
+        return (String) this.ids[slot];
+    }
+
+    @SuppressWarnings("unchecked")
+    public List<PImage> getImages(int slot) {
+        return (List<PImage>) this.images[slot];
+    }
+
+    public int getImageIndex(int slot) {
+        return this.imageIndex.get(slot);
+    }
+
+    public void setImageIndex(int slot, int imageIndex) {
+        this.imageIndex.put(slot, imageIndex);
+    }
+
+    public int getActionPeriod(int slot) {
+        return this.actionPeriod.get(slot);
+    }
+
+    public int getAnimationPeriod(int slot) {
+        return this.animationPeriod.get(slot);
+    }
+
+    public int getResourceLimit(int slot) {
+        return this.resourceLimit.get(slot);
+    }
+
+    public int getResourceCount(int slot) {
+        return this.resourceCount.get(slot);
+    }
+
+    public void setResourceCount(int slot, int resourceCount) {
+        this.resourceCount.put(slot, resourceCount);
+        markChanged(slot);
+    }
+
+    public int getGeneration(int slot) {
+        return this.generation.get(slot);
+    }
+
+    // the slot's events are all dead from here on
+    public void incrementGeneration(int slot) {
+        this.generation.put(slot, this.generation.get(slot) + 1);
+        this.activityDue.put(slot, NO_EVENT);
+        this.animationDue.put(slot, NO_EVENT);
+        markChanged(slot);
+    }
+
+    public long getAnimationStart(int slot) {
+        return this.animationStart.get(slot);
+    }
+
+    public void setAnimationStart(int slot, long animationStart) {
+        this.animationStart.put(slot, animationStart);
+        markChanged(slot);
+    }
+
+    public long getIdleStamp(int slot) {
+        return this.idleStamp.get(slot);
+    }
+
+    public void setIdleStamp(int slot, long idleStamp) {
+        this.idleStamp.put(slot, idleStamp);
+    }
+
+    public AnimationClock getAnimationClock() {
+        return this.animationClock;
+    }
+
+    public void startAnimation(int slot, AnimationClock animationClock) {
+        this.animationClock = animationClock;
+        this.animationStart.put(slot, animationClock.currentTime());
+        markChanged(slot);
+    }
+
+    public Action getActivityAction(int slot) {
+        return (Action) this.activityActions[slot];
+    }
+
+    public void setActivityAction(int slot, Action action) {
+        this.activityActions[slot] = action;
+    }
+
+    public AnimationAction getAnimationAction(int slot) {
+        return (AnimationAction) this.animationActions[slot];
+    }
+
+    public void setAnimationAction(int slot, AnimationAction action) {
+        this.animationActions[slot] = action;
+    }
+
+    // where the slot's entity comes in world order; later joins come later
+    public long getJoined(int slot) {
+        return this.joined.get(slot);
+    }
+
+    // called by the world once the entity is among its entities
+    public void setJoined(int slot) {
+        this.joined.put(slot, this.joins++);
+        markChanged(slot);
+    }
+
+    public long getActivityDue(int slot) {
+        return this.activityDue.get(slot);
+    }
+
+    public long getAnimationDue(int slot) {
+        return this.animationDue.get(slot);
+    }
+
+    public int getAnimationRepeats(int slot) {
+        return this.animationRepeats.get(slot);
+    }
+
+    // called by the scheduler for every event it queues
+    public void setPendingEvent(int slot, Action action, long time) {
+        if (action instanceof ActivityAction) {
+            this.activityDue.put(slot, time);
+        } else if (action instanceof AnimationAction) {
+            this.animationDue.put(slot, time);
+            this.animationRepeats.put(slot,
+                    ((AnimationAction) action).getRepeatCount());
+        } else {
+            return;
+        }
+        markChanged(slot);
+    }
+
+    // called by the scheduler for every live event it fires
+    public void clearPendingEvent(int slot, Action action, long time) {
+        if (action instanceof ActivityAction) {
+            if (this.activityDue.get(slot) == time) {
+                this.activityDue.put(slot, NO_EVENT);
+                markChanged(slot);
+            }
+        } else if (action instanceof AnimationAction) {
+            if (this.animationDue.get(slot) == time) {
+                this.animationDue.put(slot, NO_EVENT);
+                markChanged(slot);
+            }
+        }
+    }
+
+    /*
+       The slots changed since the last call, each listed once, and starts
+       a new epoch.  Call it between ticks: the region threads stamp the
+       slots of their own entities while a tick runs.
+    */
+    public int[] takeChanges() {
+        int[] slots = Arrays.copyOf(this.changedSlots, this.changeCount.get());
+        this.changeCount.set(0);
+        this.epoch++;
+        return slots;
+    }
+
+    private void markChanged(int slot) {
+        if (this.changed.get(slot) != this.epoch) {
+            this.changed.put(slot, this.epoch);
+            this.changedSlots[this.changeCount.getAndIncrement()] = slot;
+        }
+    }
+
+    private void allocateColumns(int capacity) {
+        this.x = growInts(this.x, capacity);
+        this.y = growInts(this.y, capacity);
+        this.kind = growInts(this.kind, capacity);
+        this.imageIndex = growInts(this.imageIndex, capacity);
+        this.actionPeriod = growInts(this.actionPeriod, capacity);
+        this.animationPeriod = growInts(this.animationPeriod, capacity);
+        this.resourceLimit = growInts(this.resourceLimit, capacity);
+        this.resourceCount = growInts(this.resourceCount, capacity);
+        this.generation = growInts(this.generation, capacity);
+        this.animationStart = growLongs(this.animationStart, capacity);
+        this.idleStamp = growLongs(this.idleStamp, capacity);
+        this.joined = growLongs(this.joined, capacity);
+        this.activityDue = growLongs(this.activityDue, capacity);
+        this.animationDue = growLongs(this.animationDue, capacity);
+        this.animationRepeats = growInts(this.animationRepeats, capacity);
+        this.changed = growInts(this.changed, capacity);
+        this.changedSlots = this.changedSlots == null ? new int[capacity] :
+                Arrays.copyOf(this.changedSlots, capacity);
+
+        this.views = growObjects(this.views, capacity);
+        this.ids = growObjects(this.ids, capacity);
+        this.images = growObjects(this.images, capacity);
+        this.activityActions = growObjects(this.activityActions, capacity);
+        this.animationActions = growObjects(this.animationActions, capacity);
+    }
+
+    private IntBuffer growInts(IntBuffer old, int capacity) {
+        IntBuffer grown = this.offHeap ?
+                ByteBuffer.allocateDirect(capacity * Integer.BYTES)
+                        .order(ByteOrder.nativeOrder()).asIntBuffer() :
+                IntBuffer.allocate(capacity);
+        if (old != null) {
+            IntBuffer source = old.duplicate();
+            source.clear();
+            grown.put(source);
+            grown.clear();
+        }
+        return grown;
+    }
+
+    private LongBuffer growLongs(LongBuffer old, int capacity) {
+        LongBuffer grown = this.offHeap ?
+                ByteBuffer.allocateDirect(capacity * Long.BYTES)
+                        .order(ByteOrder.nativeOrder()).asLongBuffer() :
+                LongBuffer.allocate(capacity);
+        if (old != null) {
+            LongBuffer source = old.duplicate();
+            source.clear();
+            grown.put(source);
+            grown.clear();
+        }
+        return grown;
+    }
+
+    private static Object[] growObjects(Object[] old, int capacity) {
+        return old == null ? new Object[capacity] : Arrays.copyOf(old, capacity);
+    }
+}
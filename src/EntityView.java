@@ -0,0 +1,157 @@
+import java.util.List;
+
+import processing.core.PImage;
+
+/*
+   Common base for every entity: a handle onto the entity's slot in the
+   store of the world it was made for.  All of the entity's state lives in
+   the store; subclasses only add behaviour.
+*/
+abstract class EntityView implements Entity {
+    protected final EntityStore store;
+    protected final int slot;
+
+    protected EntityView(EntityStore store, int kind, String id, Point position,
+                         List<PImage> images, int resourceLimit, int resourceCount,
+                         int actionPeriod, int animationPeriod) {
+        this.store = store;
+        this.slot = this.store.allocate(this, kind, id, position, images,
+                resourceLimit, resourceCount, actionPeriod, animationPeriod);
+    }
+
+    @Override
+    public int getSlot() {
+        return this.slot;
+    }
+
+    @Override
+    public EntityStore getStore() {
+        return this.store;
+    }
+
+    public String getId() {
+        return this.store.getId(this.slot);
+    }
+
+    @Override
+    public Point getPosition() {
+        return new Point(this.store.getX(this.slot), this.store.getY(this.slot));
+    }
+
+    @Override
+    public int getX() {
+        return this.store.getX(this.slot);
+    }
+
+    @Override
+    public int getY() {
+        return this.store.getY(this.slot);
+    }
+
+    @Override
+    public void setPosition(Point point) {
+        this.store.setPosition(this.slot, point.x, point.y);
+    }
+
+    @Override
+    public String getKind() {
+        return KINDS[this.store.getKind(this.slot)];
+    }
+
+    @Override
+    public void nextImage() {
+        this.store.setImageIndex(this.slot,
+                (this.store.getImageIndex(this.slot) + 1) % getImages().size());
+    }
+
+    @Override
+    public List<PImage> getImages() {
+        return this.store.getImages(this.slot);
+    }
+
+    @Override
+    public int getImageIndex() {
+        long start = this.store.getAnimationStart(this.slot);
+        if (start != EntityStore.NO_ANIMATION_START) {
+            return this.store.getAnimationClock().imageIndex(start,
+                    getAnimationPeriod(), getRepeatCount(), getImages().size());
+        }
+        return this.store.getImageIndex(this.slot);
+    }
+
+    @Override
+    public int getGeneration() {
+        return this.store.getGeneration(this.slot);
+    }
+
+    @Override
+    public void incrementGeneration() {
+        this.store.incrementGeneration(this.slot);
+    }
+
+    public int getActionPeriod() {
+        return this.store.getActionPeriod(this.slot);
+    }
+
+    public int getAnimationPeriod() {
+        return this.store.getAnimationPeriod(this.slot);
+    }
+
+    public int getRepeatCount() {
+        return 0;
+    }
+
+    protected int getResourceLimit() {
+        return this.store.getResourceLimit(this.slot);
+    }
+
+    protected int getResourceCount() {
+        return this.store.getResourceCount(this.slot);
+    }
+
+    protected void setResourceCount(int resourceCount) {
+        this.store.setResourceCount(this.slot, resourceCount);
+    }
+
+    /*
+       An entity whose last look around found nothing to do keeps the stamp
+       the world gave it then.  While the world still gives the same stamp,
+       the same look would find nothing again, so it can be skipped.  The
+       entity's timer keeps firing every period all the same, which is what
+       makes it act at the very time, and in the very order among other
+       events, that it would have once something does change.
+    */
+    protected boolean isStillIdle(long stamp) {
+        return stamp != EntityStore.NOT_IDLE &&
+                stamp == this.store.getIdleStamp(this.slot);
+    }
+
+    protected void setIdleStamp(long stamp) {
+        this.store.setIdleStamp(this.slot, stamp);
+    }
+
+    public Action getActivityAction(WorldModel world, ImageStore imageStore) {
+        // one action per entity, re-armed every period
+        Action action = this.store.getActivityAction(this.slot);
+        if (action == null) {
+            action = Entity.createActivityAction(world, imageStore, this);
+            this.store.setActivityAction(this.slot, action);
+        }
+        return action;
+    }
+
+    public Action getAnimationAction(int repeatCount) {
+        AnimationAction action = this.store.getAnimationAction(this.slot);
+        if (action == null) {
+            action = Entity.createAnimationAction(repeatCount, this);
+            this.store.setAnimationAction(this.slot, action);
+        } else {
+            action.setRepeatCount(repeatCount);
+        }
+        return action;
+    }
+
+    public void startAnimation(AnimationClock animationClock) {
+        this.store.startAnimation(this.slot, animationClock);
+    }
+}
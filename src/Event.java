@@ -3,11 +3,19 @@ final class Event
    public Action action;
    public long time;
    public Entity entity;
+   public int generation;
 
-   public Event(Action action, long time, Entity entity)
+   // links and bucket used by TimingWheelEventQueue
+   Event prev;
+   Event next;
+   int bucket;
+
+   public Event(Action action, long time, Entity entity, int generation)
    {
       this.action = action;
       this.time = time;
       this.entity = entity;
+      this.generation = generation;
+      this.bucket = -1;
    }
 }
@@ -0,0 +1,16 @@
+import java.util.function.Consumer;
+
+interface EventQueue {
+
+    public void add(Event event);
+
+    // removes and returns the next event whose time is before the given time,
+    // or null if no such event is pending
+    public Event pollDue(long time);
+
+    public boolean isEmpty();
+
+    // visits every queued event, in no particular order
+    public void forEach(Consumer<Event> consumer);
+
+}
@@ -1,67 +1,205 @@
-import java.util.*;
+import java.util.function.Consumer;
 
 final class EventScheduler {
-    private PriorityQueue<Event> eventQueue;
-    private Map<Entity, List<Event>> pendingEvents;
+    private EventQueue eventQueue;
+    private SimulationClock clock;
     private double timeScale;
 
+    // when set, animation frames come from the clock and no animation
+    // events are ever scheduled
+    private AnimationClock animationClock;
+
+    // fired events are recycled through this list, linked by Event.next
+    private Event freeEvents;
+
+    // when set, due events are fired by region instead of one by one
+    private RegionTicker regions;
+
+    // when set, every event belongs to the actor of the region its entity is in
+    private RegionActors actors;
+
     public EventScheduler(double timeScale) {
-        this.eventQueue = new PriorityQueue<>(new EventComparator());
-        this.pendingEvents = new HashMap<>();
+        this(timeScale, new TimingWheelEventQueue(1));
+    }
+
+    public EventScheduler(double timeScale, EventQueue eventQueue) {
+        this(timeScale, eventQueue, new WallClock());
+    }
+
+    public EventScheduler(double timeScale, EventQueue eventQueue,
+                          SimulationClock clock) {
+        this(timeScale, eventQueue, clock, true);
+    }
+
+    public EventScheduler(double timeScale, EventQueue eventQueue,
+                          SimulationClock clock, boolean clockAnimation) {
+        this.eventQueue = eventQueue;
+        this.clock = clock;
         this.timeScale = timeScale;
+        if (clockAnimation) {
+            this.animationClock = new AnimationClock(clock, timeScale);
+        }
     }
 
-    private void removePendingEvent(Event event) {
-        List<Event> pending = this.pendingEvents.get(event.entity);
+    // a scheduler for RegionTicker's workers and RegionActors' actors, adding
+    // to a queue of their own
+    EventScheduler(EventScheduler parent, EventQueue eventQueue) {
+        this(parent, eventQueue, parent.clock);
+    }
 
-        if (pending != null) {
-            pending.remove(event);
+    // the same, for TimeWarpEngine, whose processes each keep their own time
+    EventScheduler(EventScheduler parent, EventQueue eventQueue,
+                   SimulationClock clock) {
+        this.eventQueue = eventQueue;
+        this.clock = clock;
+        this.timeScale = parent.timeScale;
+        if (parent.animationClock != null) {
+            this.animationClock = clock == parent.clock ?
+                    parent.animationClock : new AnimationClock(clock, this.timeScale);
         }
     }
 
+    /*
+       Runs local actions in non-adjacent regions of the world concurrently
+       from now on; see RegionTicker.  The world state after every tick is
+       the same as firing the events one at a time.  Chunked worlds page
+       grids in and out on access, so they stay serial.
+    */
+    public void runInRegions(WorldModel world) {
+        if (world.isChunked()) {
+            System.err.println("regions: chunked worlds run serially");
+            return;
+        }
+        this.regions = new RegionTicker(this, world.numRows, world.numCols);
+    }
+
+    /*
+       Hands the world's events to region actors from now on; see
+       RegionActors.  Unlike runInRegions this changes the order events fire
+       in, though not with the number of threads.  Chunked worlds stay on
+       this scheduler's queue.
+    */
+    public void runAsActors(WorldModel world) {
+        if (world.isChunked()) {
+            System.err.println("actors: chunked worlds run serially");
+            return;
+        }
+        RegionActors actors = new RegionActors(this, world.numRows, world.numCols);
+        Event next;
+        while ((next = this.eventQueue.pollDue(Long.MAX_VALUE)) != null) {
+            actors.add(next);
+        }
+        this.eventQueue = actors;
+        this.actors = actors;
+    }
+
+    public SimulationClock getClock() {
+        return this.clock;
+    }
+
+    public AnimationClock getAnimationClock() {
+        return this.animationClock;
+    }
+
     public void updateOnTime(long time) {
-        while (!this.eventQueue.isEmpty() &&
-                this.eventQueue.peek().time < time) {
-            Event next = this.eventQueue.poll();
+        if (this.actors != null) {
+            this.actors.updateOnTime(time);
+            return;
+        }
+        if (this.regions != null) {
+            this.regions.updateOnTime(time);
+            return;
+        }
 
-            removePendingEvent(next);
+        Event next;
+        while ((next = this.eventQueue.pollDue(time)) != null) {
+            Action action = next.action;
+            boolean live = next.generation == next.entity.getGeneration();
+            recycleEvent(next);
 
-            next.action.executeAction(this);
+            // events left behind by unscheduleAllEvents are dropped here
+            if (live) {
+                action.executeAction(this);
+            }
         }
     }
 
     public void scheduleEvent(Entity entity, Action action, long afterPeriod) {
-        long time = System.currentTimeMillis() +
+        long time = this.clock.currentTime() +
                 (long) (afterPeriod * this.timeScale);
-        Event event = new Event(action, time, entity);
+        this.eventQueue.add(obtainEvent(action, time, entity));
+    }
 
-        this.eventQueue.add(event);
+    // for resuming a timer at the absolute clock time it was due
+    public void scheduleEventAt(Entity entity, Action action, long time) {
+        this.eventQueue.add(obtainEvent(action, time, entity));
+    }
 
-        // update list of pending events for the given entity
-        List<Event> pending = this.pendingEvents.getOrDefault(entity,
-                new LinkedList<>());
-        pending.add(event);
-        this.pendingEvents.put(entity, pending);
+    // visits every queued event that will still fire, in no particular order
+    public void forEachPendingEvent(Consumer<Event> consumer) {
+        this.eventQueue.forEach(event -> {
+            if (event.generation == event.entity.getGeneration()) {
+                consumer.accept(event);
+            }
+        });
     }
 
-    public void unscheduleAllEvents(Entity entity) {
-        List<Event> pending = this.pendingEvents.remove(entity);
+    // removes the next due event without firing it, for RegionTicker
+    Event pollDue(long time) {
+        return this.eventQueue.pollDue(time);
+    }
 
-        if (pending != null) {
-            for (Event event : pending) {
-                this.eventQueue.remove(event);
-            }
+    void addEvent(Event event) {
+        this.eventQueue.add(event);
+    }
+
+    private Event obtainEvent(Action action, long time, Entity entity) {
+        entity.getStore().setPendingEvent(entity.getSlot(), action, time);
+
+        Event event = this.freeEvents;
+        if (event == null) {
+            return new Event(action, time, entity, entity.getGeneration());
         }
+
+        this.freeEvents = event.next;
+        event.next = null;
+        event.action = action;
+        event.time = time;
+        event.entity = entity;
+        event.generation = entity.getGeneration();
+        return event;
+    }
+
+    void recycleEvent(Event event) {
+        // a live event leaves the queue only to be fired
+        if (event.generation == event.entity.getGeneration()) {
+            event.entity.getStore().clearPendingEvent(event.entity.getSlot(),
+                    event.action, event.time);
+        }
+
+        event.action = null;
+        event.entity = null;
+        event.next = this.freeEvents;
+        this.freeEvents = event;
+    }
+
+    public void unscheduleAllEvents(Entity entity) {
+        // every event stamped with an older generation is now dead
+        entity.incrementGeneration();
     }
 
     public void scheduleActions(Entity entity, WorldModel world, ImageStore imageStore){
         if (entity instanceof Active){
             Active activeEntity = (Active) entity;
-            this.scheduleEvent(entity, Entity.createActivityAction(world, imageStore, entity), activeEntity.getActionPeriod());
+            this.scheduleEvent(entity, activeEntity.getActivityAction(world, imageStore), activeEntity.getActionPeriod());
         }
         if (entity instanceof Animated){
             Animated animatedEntity = (Animated) entity;
-            this.scheduleEvent(entity, Entity.createAnimationAction(animatedEntity.getRepeatCount(), entity), animatedEntity.getAnimationPeriod());
+            if (this.animationClock != null) {
+                animatedEntity.startAnimation(this.animationClock);
+            } else {
+                this.scheduleEvent(entity, animatedEntity.getAnimationAction(animatedEntity.getRepeatCount()), animatedEntity.getAnimationPeriod());
+            }
         }
     }
 
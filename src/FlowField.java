@@ -0,0 +1,294 @@
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/*
+   Multi-source BFS distance field toward every entity of one kind.  A
+   target's own cell reads 0, so an agent whose cell reads 1 is adjacent to
+   a target, and otherwise it only has to step to a neighbour one lower.
+
+   Cells holding a target are sources, cells holding anything an agent
+   cannot walk through are blocked, and every other cell is open.  When a
+   cell changes, only the part of the field that depended on it is redone:
+   a cell that gets closer is spread outward with a BFS, and a cell that
+   gets further away first clears every cell whose distance was derived
+   through it, then refills that region from its untouched border.
+
+   Distances stop at HORIZON, so an update never touches more than the cells
+   within that many steps of it, however large the world is.
+
+   Each cell's state and distance are packed into one int of a CellGrid,
+   state in the high half and distance in the low half.  An update keeps
+   the first and last row it changed, so callers can tell which parts of
+   the world read differently afterwards.
+*/
+final class FlowField {
+    public static final int UNREACHABLE = Integer.MAX_VALUE;
+    public static final int HORIZON = 256;
+
+    private static final byte OPEN = 0;
+    private static final byte SOURCE = 1;
+    private static final byte BLOCKED = 2;
+
+    // stored distances are 16 bits; these two values sit above any real one
+    private static final int FAR = 0xffff;
+    // marks a cell as cleared while a raise is being worked out
+    private static final int CLEARED = FAR - 1;
+    private static final int DISTANCE_MASK = 0xffff;
+    private static final int STATE_SHIFT = 16;
+
+    // what a grid for a field has to read for cells nobody has written
+    public static final int CELL_FILL = (OPEN << STATE_SHIFT) | FAR;
+
+    // entities that move around never block a field
+    private static final Set<String> MOVING_KINDS = Set.of(
+            "MINER", "MINERFULL", "OREBLOB", "QUAKE");
+
+    private static final int[] DX = {1, -1, 0, 0};
+    private static final int[] DY = {0, 0, 1, -1};
+
+    private int numRows;
+    private int numCols;
+    private String targetKind;
+    private Set<String> walkableKinds;
+    private Set<String> evictableKinds;
+
+    private CellGrid cells;
+
+    // scratch space reused between updates
+    private int[] work;
+    private int[] seeds;
+
+    // the first and last cell the last update that did anything changed
+    private int firstChanged;
+    private int lastChanged;
+
+    public FlowField(int numRows, int numCols, CellGrid cells,
+                     String targetKind, String... evictableKinds) {
+        this.numRows = numRows;
+        this.numCols = numCols;
+        this.targetKind = targetKind;
+        this.evictableKinds = Set.of(evictableKinds);
+        this.walkableKinds = new HashSet<>(MOVING_KINDS);
+        this.walkableKinds.addAll(this.evictableKinds);
+
+        this.cells = cells;
+        this.work = new int[64];
+        this.seeds = new int[64];
+    }
+
+    public String getTargetKind() {
+        return this.targetKind;
+    }
+
+    public int getDistance(int x, int y) {
+        int distance = distance(y * this.numCols + x);
+        return distance == FAR ? UNREACHABLE : distance;
+    }
+
+    // whether an agent following this field may step onto the occupant's cell
+    public boolean canEnter(Entity occupant) {
+        return occupant == null || this.evictableKinds.contains(occupant.getKind());
+    }
+
+    public int getChangedTop() {
+        return this.firstChanged / this.numCols;
+    }
+
+    public int getChangedBottom() {
+        return this.lastChanged / this.numCols;
+    }
+
+    // returns whether the field changed at all
+    public boolean update(Point pos, Entity occupant) {
+        int cell = pos.y * this.numCols + pos.x;
+        byte newState = stateOf(occupant);
+        if (newState == state(cell)) {
+            return false;
+        }
+        this.firstChanged = cell;
+        this.lastChanged = cell;
+        this.cells.set(cell, (newState << STATE_SHIFT) | distance(cell));
+
+        int best = bestDistance(cell);
+        int current = distance(cell) == FAR ? UNREACHABLE : distance(cell);
+        if (best < current) {
+            setDistance(cell, best);
+            spread(cell);
+        } else if (best > current) {
+            raise(cell);
+        }
+        return true;
+    }
+
+    private byte stateOf(Entity occupant) {
+        if (occupant == null) {
+            return OPEN;
+        } else if (occupant.getKind() == this.targetKind) {
+            return SOURCE;
+        } else if (this.walkableKinds.contains(occupant.getKind())) {
+            return OPEN;
+        }
+        return BLOCKED;
+    }
+
+    private int bestDistance(int cell) {
+        if (state(cell) == SOURCE) {
+            return 0;
+        } else if (state(cell) == BLOCKED) {
+            return UNREACHABLE;
+        }
+
+        int best = UNREACHABLE;
+        int x = cell % this.numCols;
+        int y = cell / this.numCols;
+        for (int dir = 0; dir < DX.length; dir++) {
+            int neighbour = neighbour(x + DX[dir], y + DY[dir]);
+            if (neighbour >= 0 && distance(neighbour) < CLEARED) {
+                best = Math.min(best, distance(neighbour) + 1);
+            }
+        }
+        return best > HORIZON ? UNREACHABLE : best;
+    }
+
+    // BFS outward from cells whose distance just dropped
+    private void spread(int start) {
+        int head = 0;
+        int tail = 0;
+        this.work = push(this.work, tail++, start);
+
+        while (head < tail) {
+            int cell = this.work[head++];
+            tail = relaxNeighbours(cell, tail);
+        }
+    }
+
+    private int relaxNeighbours(int cell, int tail) {
+        int next = distance(cell) + 1;
+        if (next > HORIZON) {
+            return tail;
+        }
+
+        int x = cell % this.numCols;
+        int y = cell / this.numCols;
+        for (int dir = 0; dir < DX.length; dir++) {
+            int neighbour = neighbour(x + DX[dir], y + DY[dir]);
+            if (neighbour >= 0 && state(neighbour) == OPEN &&
+                    distance(neighbour) > next) {
+                setDistance(neighbour, next);
+                this.work = push(this.work, tail++, neighbour);
+            }
+        }
+        return tail;
+    }
+
+    private void raise(int root) {
+        // clear the root and every cell whose distance was derived from it
+        int cleared = 0;
+        int scan = 0;
+        this.work = push(this.work, cleared++, root);
+        int rootDistance = distance(root);
+        setDistance(root, CLEARED);
+        this.seeds = push(this.seeds, 0, rootDistance);
+
+        while (scan < cleared) {
+            int cell = this.work[scan];
+            int next = this.seeds[scan] + 1;
+            scan++;
+
+            int x = cell % this.numCols;
+            int y = cell / this.numCols;
+            for (int dir = 0; dir < DX.length; dir++) {
+                int neighbour = neighbour(x + DX[dir], y + DY[dir]);
+                if (neighbour >= 0 && state(neighbour) == OPEN &&
+                        distance(neighbour) == next) {
+                    setDistance(neighbour, CLEARED);
+                    this.seeds = push(this.seeds, cleared, next);
+                    this.work = push(this.work, cleared++, neighbour);
+                }
+            }
+        }
+
+        // refill from the untouched border, closest seeds first
+        int seedCount = 0;
+        for (int i = 0; i < cleared; i++) {
+            int cell = this.work[i];
+            int best = bestDistance(cell);
+            if (best != UNREACHABLE) {
+                this.seeds = push(this.seeds, seedCount++, cell);
+                this.seeds = push(this.seeds, seedCount++, best);
+            }
+        }
+        for (int i = 0; i < cleared; i++) {
+            setDistance(this.work[i], FAR);
+        }
+        for (int i = 0; i < seedCount; i += 2) {
+            setDistance(this.seeds[i], Math.min(
+                    distance(this.seeds[i]), this.seeds[i + 1]));
+        }
+        sortSeeds(seedCount / 2);
+
+        // a BFS that merges the sorted seeds into its queue by distance
+        int head = 0;
+        int tail = 0;
+        int nextSeed = 0;
+        while (nextSeed < seedCount || head < tail) {
+            int cell;
+            if (head < tail && (nextSeed >= seedCount ||
+                    distance(this.work[head]) <= this.seeds[nextSeed + 1])) {
+                cell = this.work[head++];
+            } else {
+                cell = this.seeds[nextSeed];
+                int seedDistance = this.seeds[nextSeed + 1];
+                nextSeed += 2;
+                if (distance(cell) < seedDistance) {
+                    // already reached more cheaply through the queue
+                    continue;
+                }
+            }
+            tail = relaxNeighbours(cell, tail);
+        }
+    }
+
+    private void sortSeeds(int count) {
+        // pack (distance, cell) pairs into longs so a plain sort orders them
+        long[] packed = new long[count];
+        for (int i = 0; i < count; i++) {
+            packed[i] = ((long) this.seeds[2 * i + 1] << 32) | this.seeds[2 * i];
+        }
+        Arrays.sort(packed);
+        for (int i = 0; i < count; i++) {
+            this.seeds[2 * i] = (int) packed[i];
+            this.seeds[2 * i + 1] = (int) (packed[i] >>> 32);
+        }
+    }
+
+    private byte state(int cell) {
+        return (byte) (this.cells.get(cell) >>> STATE_SHIFT);
+    }
+
+    private int distance(int cell) {
+        return this.cells.get(cell) & DISTANCE_MASK;
+    }
+
+    private void setDistance(int cell, int distance) {
+        this.cells.set(cell, (this.cells.get(cell) & ~DISTANCE_MASK) | distance);
+        this.firstChanged = Math.min(this.firstChanged, cell);
+        this.lastChanged = Math.max(this.lastChanged, cell);
+    }
+
+    private int neighbour(int x, int y) {
+        if (x < 0 || x >= this.numCols || y < 0 || y >= this.numRows) {
+            return -1;
+        }
+        return y * this.numCols + x;
+    }
+
+    private static int[] push(int[] array, int index, int value) {
+        if (index >= array.length) {
+            array = Arrays.copyOf(array, array.length * 2);
+        }
+        array[index] = value;
+        return array;
+    }
+}
@@ -28,6 +28,20 @@ final class Functions {
         }
     }
 
+    public static int getCurrentSprite(Object entity) {
+        if (entity instanceof Background) {
+            return ((SpriteSequence) ((Background) entity).images)
+                    .getSprite(((Background) entity).imageIndex);
+        } else if (entity instanceof Entity) {
+            return ((SpriteSequence) ((Entity) entity).getImages())
+                    .getSprite(((Entity) entity).getImageIndex());
+        } else {
+            throw new UnsupportedOperationException(
+                    String.format("getCurrentSprite not supported for %s",
+                            entity));
+        }
+    }
+
     /*
       Called with color for which alpha should be set and alpha value.
       setAlpha(img, color(255, 255, 255), 0));
@@ -37,14 +51,18 @@ final class Functions {
         int nonAlpha = maskColor & COLOR_MASK;
         img.format = PApplet.ARGB;
         img.loadPixels();
-        for (int i = 0; i < img.pixels.length; i++) {
-            if ((img.pixels[i] & COLOR_MASK) == nonAlpha) {
-                img.pixels[i] = alphaValue | nonAlpha;
-            }
-        }
+        keyPixels(img.pixels, nonAlpha, alphaValue | nonAlpha);
         img.updatePixels();
     }
 
+    // one flat pass over a local array, which the JIT unrolls and can vectorize
+    private static void keyPixels(int[] pixels, int key, int keyed) {
+        for (int i = 0; i < pixels.length; i++) {
+            int pixel = pixels[i];
+            pixels[i] = (pixel & COLOR_MASK) == key ? keyed : pixel;
+        }
+    }
+
 
     public static int clamp(int value, int low, int high) {
         return Math.min(high, Math.max(value, low));
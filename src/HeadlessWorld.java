@@ -0,0 +1,359 @@
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.function.Consumer;
+import processing.core.PConstants;
+import processing.core.PImage;
+
+/*
+   Runs the simulation without a window on a virtual clock, as fast as the
+   CPU allows, and reports how much simulated time passed per wall second.
+
+   With -alloc it instead measures how many bytes are allocated per fired
+   event once things have warmed up, twice: with actions that only re-arm
+   themselves, which is the scheduler's own cost, and with the world's real
+   behaviour, which still makes a Point for each step an entity takes.
+
+   With -checkpoint=SECONDS it also writes a checkpoint every that many
+   simulated seconds, which can be passed back in as the save file.
+
+   With -parallel, local events in far-apart regions of the world are fired
+   concurrently, with the same outcome as firing them one at a time.
+
+   With -actors, every region of the world is an actor with its own event
+   queue and mailbox; see RegionActors.  Events in a step fire in a
+   different order than they would serially, so the outcome differs too.
+
+   With -timewarp=PROCESSES, events are run optimistically by that many
+   logical processes, each owning a band of the world, and rolled back when
+   they ran too far; see TimeWarpEngine.  Checkpoints are not written then.
+
+   usage: HeadlessWorld [hours] [save file] [-heap] [-offheap] [-chunked] [-alloc]
+                        [-parallel] [-actors] [-timewarp=PROCESSES]
+                        [-world=COLSxROWS]
+                        [-checkpoint=SECONDS]
+*/
+public final class HeadlessWorld
+{
+   private static final double DEFAULT_HOURS = 1.0;
+   private static final long MILLIS_PER_HOUR = 60L * 60L * 1000L;
+   private static final long NANOS_PER_MILLI = 1000000L;
+   private static final String ALLOC_FLAG = "-alloc";
+   private static final String TIME_WARP_FLAG = "-timewarp=";
+   private static final long ALLOC_WARMUP_MILLIS = 10L * 60L * 1000L;
+   private static final int ALLOC_DEFAULT_PERIOD = 1000;
+
+   // periods in the save file are used as-is
+   private static final double TIME_SCALE = 1.0;
+
+   private static double hours = DEFAULT_HOURS;
+   private static String loadFileName = VirtualWorld.LOAD_FILE_NAME;
+   private static boolean heapQueue = false;
+   private static boolean allocBenchmark = false;
+   private static boolean chunkedWorld = false;
+   private static boolean parallelTicks = false;
+   private static boolean regionActors = false;
+   private static int timeWarpProcesses = 0;
+   private static double checkpointSeconds = 0;
+
+   public static void main(String[] args) throws InterruptedException
+   {
+      parseCommandLine(args);
+
+      ImageStore imageStore = new ImageStore(new PImage(
+         VirtualWorld.TILE_WIDTH, VirtualWorld.TILE_HEIGHT, PConstants.RGB));
+      VirtualClock clock = new VirtualClock(0);
+      EventScheduler scheduler = new EventScheduler(TIME_SCALE,
+         VirtualWorld.createEventQueue(heapQueue), clock);
+
+      if (allocBenchmark)
+      {
+         WorldModel world = VirtualWorld.loadWorld(loadFileName, imageStore,
+            chunkedWorld, null);
+         measureAllocation(world, scheduler, clock);
+         measureBehaviourAllocation(imageStore);
+         return;
+      }
+      WorldModel world = VirtualWorld.loadWorld(loadFileName, imageStore,
+         chunkedWorld, scheduler);
+      TimeWarpEngine engine = null;
+      if (timeWarpProcesses > 0 && chunkedWorld)
+      {
+         System.err.println("time warp: chunked worlds run serially");
+      }
+      else if (timeWarpProcesses > 0)
+      {
+         engine = new TimeWarpEngine(world, scheduler, timeWarpProcesses,
+            VirtualWorld.TIMER_ACTION_PERIOD);
+      }
+      else if (regionActors)
+      {
+         scheduler.runAsActors(world);
+      }
+      else if (parallelTicks)
+      {
+         scheduler.runInRegions(world);
+      }
+
+      Checkpointer checkpointer = null;
+      if (checkpointSeconds > 0 && engine != null)
+      {
+         System.err.println("time warp: checkpoints are not written");
+      }
+      else if (checkpointSeconds > 0)
+      {
+         checkpointer = new Checkpointer(world, scheduler,
+            new File(VirtualWorld.CHECKPOINT_FILE_NAME),
+            (long) (checkpointSeconds * 1000));
+      }
+
+      long simulated = (long) (hours * MILLIS_PER_HOUR);
+      long start = System.nanoTime();
+      if (engine != null)
+      {
+         runTimeWarp(engine, clock, simulated);
+      }
+      else
+      {
+         run(scheduler, clock, simulated, checkpointer);
+      }
+      long wallMillis = Math.max(1,
+         (System.nanoTime() - start) / NANOS_PER_MILLI);
+      if (checkpointer != null)
+      {
+         checkpointer.close();
+      }
+
+      System.out.println(String.format(
+         "simulated %d ms in %d ms: %.0f simulated-ms per wall-second, %d entities",
+         simulated, wallMillis, simulated * 1000.0 / wallMillis,
+         world.entities.size()));
+      if (engine != null)
+      {
+         System.out.println(String.format(
+            "time warp: %d processes, %d events committed, %d runs rolled back",
+            engine.getProcessCount(), engine.getCommitted(),
+            engine.getRolledBack()));
+      }
+   }
+
+   private static void run(EventScheduler scheduler, VirtualClock clock,
+      long simulated, Checkpointer checkpointer)
+   {
+      // same cadence as VirtualWorld.draw, minus the waiting
+      long end = clock.currentTime() + simulated;
+      while (clock.currentTime() < end)
+      {
+         clock.advance(VirtualWorld.TIMER_ACTION_PERIOD);
+         scheduler.updateOnTime(clock.currentTime());
+         if (checkpointer != null)
+         {
+            checkpointer.update(clock.currentTime());
+         }
+      }
+   }
+
+   private static void runTimeWarp(TimeWarpEngine engine, VirtualClock clock,
+      long simulated)
+   {
+      // the engine fires on the same ticks run() would, in one go
+      long end = clock.currentTime() + simulated;
+      while (clock.currentTime() < end)
+      {
+         clock.advance(VirtualWorld.TIMER_ACTION_PERIOD);
+      }
+      engine.advanceTo(clock.currentTime());
+   }
+
+   private static void measureAllocation(WorldModel world,
+      EventScheduler scheduler, VirtualClock clock)
+   {
+      for (Entity entity : world.entities)
+      {
+         int period = entity instanceof Active ?
+            ((Active) entity).getActionPeriod() : ALLOC_DEFAULT_PERIOD;
+         scheduler.scheduleEvent(entity, new RearmAction(entity, period),
+            period);
+      }
+
+      // let the event pool and the wheel reach their steady state first
+      run(scheduler, clock, ALLOC_WARMUP_MILLIS, null);
+
+      long firedBefore = RearmAction.fired;
+      long bytes = allocatedBytes();
+      run(scheduler, clock, (long) (hours * MILLIS_PER_HOUR), null);
+      reportAllocation("scheduler", RearmAction.fired - firedBefore,
+         allocatedBytes() - bytes);
+   }
+
+   // the same for the world's own actions, on a fresh copy of the world
+   private static void measureBehaviourAllocation(ImageStore imageStore)
+   {
+      VirtualClock clock = new VirtualClock(0);
+      CountingQueue queue = new CountingQueue(
+         VirtualWorld.createEventQueue(heapQueue));
+      EventScheduler scheduler = new EventScheduler(TIME_SCALE, queue, clock);
+      VirtualWorld.loadWorld(loadFileName, imageStore, chunkedWorld,
+         scheduler);
+
+      run(scheduler, clock, ALLOC_WARMUP_MILLIS, null);
+
+      long firedBefore = queue.polled;
+      long bytes = allocatedBytes();
+      run(scheduler, clock, (long) (hours * MILLIS_PER_HOUR), null);
+      reportAllocation("behaviour", queue.polled - firedBefore,
+         allocatedBytes() - bytes);
+   }
+
+   private static long allocatedBytes()
+   {
+      com.sun.management.ThreadMXBean threads =
+         (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+      return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+   }
+
+   private static void reportAllocation(String what, long fired, long bytes)
+   {
+      System.out.println(String.format(
+         "%s: %d events fired, %d bytes allocated: %.3f bytes per event",
+         what, fired, bytes, fired == 0 ? 0.0 : (double) bytes / fired));
+   }
+
+   private static void parseCommandLine(String[] args)
+   {
+      for (String arg : args)
+      {
+         if (arg.equals(VirtualWorld.HEAP_FLAG))
+         {
+            heapQueue = true;
+         }
+         else if (arg.equals(VirtualWorld.OFF_HEAP_FLAG))
+         {
+            VirtualWorld.offHeapEntities = true;
+         }
+         else if (arg.equals(VirtualWorld.CHUNKED_FLAG))
+         {
+            chunkedWorld = true;
+         }
+         else if (arg.startsWith(VirtualWorld.CHECKPOINT_FLAG))
+         {
+            checkpointSeconds = VirtualWorld.parseCheckpointInterval(arg);
+         }
+         else if (arg.equals(VirtualWorld.PARALLEL_FLAG))
+         {
+            parallelTicks = true;
+         }
+         else if (arg.equals(VirtualWorld.ACTORS_FLAG))
+         {
+            regionActors = true;
+         }
+         else if (arg.startsWith(TIME_WARP_FLAG))
+         {
+            timeWarpProcesses = parseTimeWarpProcesses(arg);
+         }
+         else if (arg.equals(ALLOC_FLAG))
+         {
+            allocBenchmark = true;
+         }
+         else if (isNumber(arg))
+         {
+            hours = Double.parseDouble(arg);
+         }
+         else if (arg.startsWith("-"))
+         {
+            // never a save file, as in VirtualWorld
+            if (!VirtualWorld.parseWorldSize(arg))
+            {
+               System.err.println(String.format("unknown flag %s", arg));
+            }
+         }
+         else
+         {
+            loadFileName = arg;
+         }
+      }
+   }
+
+   private static boolean isNumber(String arg)
+   {
+      try
+      {
+         Double.parseDouble(arg);
+         return true;
+      }
+      catch (NumberFormatException e)
+      {
+         return false;
+      }
+   }
+
+   private static int parseTimeWarpProcesses(String arg)
+   {
+      try
+      {
+         return Math.max(1,
+            Integer.parseInt(arg.substring(TIME_WARP_FLAG.length())));
+      }
+      catch (NumberFormatException e)
+      {
+         System.err.println(String.format("invalid process count %s", arg));
+         return 0;
+      }
+   }
+
+   private static final class RearmAction implements Action
+   {
+      private static long fired;
+
+      private final Entity entity;
+      private final int period;
+
+      public RearmAction(Entity entity, int period)
+      {
+         this.entity = entity;
+         this.period = period;
+      }
+
+      public void executeAction(EventScheduler scheduler)
+      {
+         fired++;
+         scheduler.scheduleEvent(this.entity, this, this.period);
+      }
+   }
+
+   // counts the events taken off the queue it wraps, dead ones included
+   private static final class CountingQueue implements EventQueue
+   {
+      private final EventQueue queue;
+      private long polled;
+
+      public CountingQueue(EventQueue queue)
+      {
+         this.queue = queue;
+      }
+
+      public void add(Event event)
+      {
+         this.queue.add(event);
+      }
+
+      public Event pollDue(long time)
+      {
+         Event event = this.queue.pollDue(time);
+         if (event != null)
+         {
+            this.polled++;
+         }
+         return event;
+      }
+
+      public boolean isEmpty()
+      {
+         return this.queue.isEmpty();
+      }
+
+      public void forEach(Consumer<Event> consumer)
+      {
+         this.queue.forEach(consumer);
+      }
+   }
+}
@@ -0,0 +1,39 @@
+import java.util.PriorityQueue;
+import java.util.function.Consumer;
+
+final class HeapEventQueue implements EventQueue {
+    private PriorityQueue<Event> eventQueue;
+
+    public HeapEventQueue() {
+        this.eventQueue = new PriorityQueue<>(new EventComparator());
+    }
+
+    @Override
+    public void add(Event event) {
+        this.eventQueue.add(event);
+    }
+
+    @Override
+    public Event pollDue(long time) {
+        if (!this.eventQueue.isEmpty() &&
+                this.eventQueue.peek().time < time) {
+            return this.eventQueue.poll();
+        }
+        return null;
+    }
+
+    // time of the earliest event, or Long.MAX_VALUE when there is none
+    public long nextTime() {
+        return this.eventQueue.isEmpty() ? Long.MAX_VALUE : this.eventQueue.peek().time;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return this.eventQueue.isEmpty();
+    }
+
+    @Override
+    public void forEach(Consumer<Event> consumer) {
+        this.eventQueue.forEach(consumer);
+    }
+}
@@ -0,0 +1,228 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import processing.core.PImage;
+
+/*
+   Decoded, colour-keyed images from the last run, so a warm start can skip
+   decoding.  An entry is found by source path and key colour, and is only
+   used while the source file's modification time still matches; anything
+   else is decoded again and the cache rewritten.  All numbers are
+   big-endian; strings are a short byte count followed by UTF-8.
+
+      int     MAGIC, VERSION, entry count
+              then for each entry:
+                 path, long mtime, byte keyed, int keyColor,
+                 int format, width, height
+      int[]   each entry's pixels, width * height, in entry order
+
+   The file is read into memory in one go, with no mapping left open, so
+   save can replace it even where a mapped file cannot be (Windows), and
+   pixels are copied straight out of that buffer into the new images'
+   pixel arrays.  Reading may happen on any thread; everything else
+   belongs to the loading thread.
+*/
+final class ImageCache {
+    private static final int MAGIC = 0x56574943;  // "VWIC"
+    private static final int VERSION = 1;
+
+    private final File file;
+    private final Map<String, Entry> entries;
+    private ByteBuffer pixels;
+
+    // what this run loaded, which is what gets written back
+    private final Map<String, Entry> loaded;
+    private boolean changed;
+
+    private ImageCache(File file) {
+        this.file = file;
+        this.entries = new HashMap<>();
+        this.loaded = new LinkedHashMap<>();
+    }
+
+    // a missing or unreadable cache is an empty one
+    public static ImageCache open(File file) {
+        ImageCache cache = new ImageCache(file);
+        if (file.isFile()) {
+            try {
+                cache.read();
+            } catch (IOException | RuntimeException e) {
+                System.err.println(file + ": ignoring image cache, " + e.getMessage());
+                cache.entries.clear();
+                cache.pixels = null;
+            }
+        }
+        return cache;
+    }
+
+    // the cached image for a source file, or null if it has to be decoded
+    public Entry find(String path, boolean keyed, int keyColor) {
+        Entry entry = this.entries.get(key(path, keyed, keyColor));
+        if (entry == null || entry.mtime != new File(path).lastModified()) {
+            return null;
+        }
+        return entry;
+    }
+
+    public PImage read(Entry entry) {
+        PImage img = new PImage(entry.width, entry.height, entry.format);
+        ByteBuffer source = this.pixels.duplicate();
+        source.position(entry.offset);
+        IntBuffer ints = source.asIntBuffer();
+        ints.get(img.pixels, 0, entry.width * entry.height);
+        return img;
+    }
+
+    // called in load order for every image that loaded, cached or not
+    public void record(String path, boolean keyed, int keyColor, PImage img,
+                       boolean cached) {
+        File source = new File(path);
+        if (!source.isFile()) {
+            return;
+        }
+        Entry entry = new Entry(path, source.lastModified(), keyed, keyColor,
+                img.format, img.width, img.height);
+        entry.image = img;
+        if (this.loaded.putIfAbsent(key(path, keyed, keyColor), entry) == null) {
+            this.changed |= !cached;
+        }
+    }
+
+    // rewrites the cache if anything was decoded or has gone; the cache
+    // cannot be read from afterwards
+    public void save() throws IOException {
+        this.pixels = null;
+        if (!this.changed && this.loaded.size() == this.entries.size()) {
+            return;
+        }
+
+        File partial = new File(this.file.getPath() + ".partial");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(partial)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(this.loaded.size());
+            for (Entry entry : this.loaded.values()) {
+                writeString(out, entry.path);
+                out.writeLong(entry.mtime);
+                out.writeByte(entry.keyed ? 1 : 0);
+                out.writeInt(entry.keyColor);
+                out.writeInt(entry.format);
+                out.writeInt(entry.width);
+                out.writeInt(entry.height);
+            }
+
+            ByteBuffer buffer = ByteBuffer.allocate(0);
+            for (Entry entry : this.loaded.values()) {
+                PImage img = entry.image;
+                img.loadPixels();
+                int bytes = img.width * img.height * Integer.BYTES;
+                if (buffer.capacity() < bytes) {
+                    buffer = ByteBuffer.allocate(bytes);
+                }
+                buffer.clear();
+                buffer.asIntBuffer().put(img.pixels, 0, img.width * img.height);
+                out.write(buffer.array(), 0, bytes);
+            }
+        }
+        Files.move(partial.toPath(), this.file.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void read() throws IOException {
+        try (FileChannel channel = FileChannel.open(this.file.toPath(),
+                StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("too large");
+            }
+            ByteBuffer in = ByteBuffer.allocate((int) size);
+            while (in.hasRemaining()) {
+                if (channel.read(in) < 0) {
+                    throw new IOException("truncated");
+                }
+            }
+            in.flip();
+            if (in.getInt() != MAGIC || in.getInt() != VERSION) {
+                throw new IOException("not an image cache of this version");
+            }
+
+            int count = in.getInt();
+            List<Entry> index = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                String path = readString(in);
+                long mtime = in.getLong();
+                boolean keyed = in.get() != 0;
+                index.add(new Entry(path, mtime, keyed, in.getInt(),
+                        in.getInt(), in.getInt(), in.getInt()));
+            }
+
+            long offset = in.position();
+            for (Entry entry : index) {
+                entry.offset = (int) offset;
+                offset += (long) entry.width * entry.height * Integer.BYTES;
+                this.entries.put(key(entry.path, entry.keyed, entry.keyColor),
+                        entry);
+            }
+            if (offset != size) {
+                throw new IOException("truncated");
+            }
+            this.pixels = in;
+        }
+    }
+
+    private static String key(String path, boolean keyed, int keyColor) {
+        return keyed ? path + "#" + Integer.toHexString(keyColor) : path;
+    }
+
+    private static void writeString(DataOutputStream out, String value)
+            throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer in) {
+        byte[] bytes = new byte[in.getShort() & 0xffff];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    static final class Entry {
+        private final String path;
+        private final long mtime;
+        private final boolean keyed;
+        private final int keyColor;
+        private final int format;
+        private final int width;
+        private final int height;
+        private int offset;
+        private PImage image;
+
+        private Entry(String path, long mtime, boolean keyed, int keyColor,
+                      int format, int width, int height) {
+            this.path = path;
+            this.mtime = mtime;
+            this.keyed = keyed;
+            this.keyColor = keyColor;
+            this.format = format;
+            this.width = width;
+            this.height = height;
+        }
+    }
+}
@@ -1,11 +1,34 @@
+import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import processing.core.PApplet;
+import processing.core.PGraphics;
 import processing.core.PImage;
 
+/*
+   Every loaded frame gets a sprite id, and the frames are packed into one
+   atlas image so a renderer can draw any of them as a sub-rectangle of a
+   single texture.  The atlas is rebuilt the next time it is asked for
+   after more frames are loaded.
+*/
 final class ImageStore {
-    private Map<String, List<PImage>> images;
-    private List<PImage> defaultImages;
+    public static final int NO_SPRITE = -1;
+
+    private static final int ATLAS_MAX_WIDTH = 2048;
+    private static final int OPAQUE = 0xff000000;
+
+    private Map<String, SpriteSequence> images;
+    private SpriteSequence defaultImages;
+
+    // every frame by sprite id, and its corner in the atlas
+    private List<PImage> frames;
+    private int[] spriteX;
+    private int[] spriteY;
+    private PImage atlas;
 
     private static final int KEYED_RED_IDX = 2;
     private static final int KEYED_GREEN_IDX = 3;
@@ -14,8 +37,9 @@ final class ImageStore {
 
     public ImageStore(PImage defaultImage) {
         this.images = new HashMap<>();
-        defaultImages = new LinkedList<>();
-        defaultImages.add(defaultImage);
+        this.frames = new ArrayList<>();
+        defaultImages = new SpriteSequence(this.frames);
+        defaultImages.addSprite(addFrame(defaultImage));
     }
 
     public List<PImage> getImageList(String key) {
@@ -24,44 +48,209 @@ final class ImageStore {
 
     public void loadImages(Scanner in,
                                   PApplet screen) {
-        int lineNumber = 0;
-        while (in.hasNextLine()) {
+        loadImages(in, screen, null);
+    }
+
+    /*
+       Files are decoded and keyed on a pool of threads, but frames are added
+       and errors reported in imagelist order, so every key's sequence comes
+       out the same as a one-at-a-time load.  Images found in the cache are
+       copied out of it instead of decoded.
+    */
+    public void loadImages(Scanner in, PApplet screen, ImageCache cache) {
+        ExecutorService decoders = Executors.newFixedThreadPool(
+                Runtime.getRuntime().availableProcessors());
+        try {
+            List<PendingImage> pending = new ArrayList<>();
+            int lineNumber = 0;
+            while (in.hasNextLine()) {
+                PendingImage image = processImageLine(in.nextLine(),
+                        lineNumber, screen, decoders, cache);
+                if (image != null) {
+                    pending.add(image);
+                }
+                lineNumber++;
+            }
+
+            for (PendingImage image : pending) {
+                addImage(image, cache);
+            }
+        } finally {
+            decoders.shutdown();
+        }
+        packAtlas();
+
+        if (cache != null) {
+            try {
+                cache.save();
+            } catch (IOException e) {
+                System.err.println(e.getMessage());
+            }
+        }
+    }
+
+    public PImage getAtlas() {
+        if (this.atlas == null || this.spriteX.length != this.frames.size()) {
+            packAtlas();
+        }
+        return this.atlas;
+    }
+
+    public void drawSprite(PGraphics target, int sprite, float x, float y) {
+        PImage atlas = getAtlas();
+        PImage frame = this.frames.get(sprite);
+        int u = this.spriteX[sprite];
+        int v = this.spriteY[sprite];
+        target.image(atlas, x, y, frame.width, frame.height,
+                u, v, u + frame.width, v + frame.height);
+    }
+
+    private PendingImage processImageLine(String line, int lineNumber,
+                                          PApplet screen, ExecutorService decoders,
+                                          ImageCache cache) {
+        String[] attrs = line.split("\\s");
+        if (attrs.length < 2) {
+            return null;
+        }
+
+        PendingImage image = new PendingImage(attrs[0], attrs[1], lineNumber);
+        if (attrs.length >= KEYED_IMAGE_MIN) {
             try {
-                processImageLine(this.images, in.nextLine(), screen);
+                int r = Integer.parseInt(attrs[KEYED_RED_IDX]);
+                int g = Integer.parseInt(attrs[KEYED_GREEN_IDX]);
+                int b = Integer.parseInt(attrs[KEYED_BLUE_IDX]);
+                image.keyColor = screen.color(r, g, b);
+                image.keyed = true;
             } catch (NumberFormatException e) {
+                image.formatError = true;
+            }
+        }
+
+        ImageCache.Entry cached = cache == null ? null :
+                cache.find(image.file, image.keyed, image.keyColor);
+        image.cached = cached != null;
+        image.decoded = decoders.submit(() -> {
+            if (cached != null) {
+                return cache.read(cached);
+            }
+            PImage img = screen.loadImage(image.file);
+            if (image.keyed && img != null && img.width != -1) {
+                Functions.setAlpha(img, image.keyColor, 0);
+            }
+            return img;
+        });
+        return image;
+    }
+
+    private void addImage(PendingImage image, ImageCache cache) {
+        PImage img = await(image.decoded);
+        if (img != null && img.width != -1) {
+            getImages(this.images, image.key).addSprite(addFrame(img));
+            if (cache != null) {
+                cache.record(image.file, image.keyed, image.keyColor, img,
+                        image.cached);
+            }
+            if (image.formatError) {
                 System.out.println(String.format("Image format error on line %d",
-                        lineNumber));
+                        image.lineNumber));
             }
-            lineNumber++;
         }
     }
 
-    private void processImageLine(Map<String, List<PImage>> images, String line, PApplet screen) {
-        String[] attrs = line.split("\\s");
-        if (attrs.length >= 2) {
-            String key = attrs[0];
-            PImage img = screen.loadImage(attrs[1]);
-            if (img != null && img.width != -1) {
-                List<PImage> imgs = getImages(images, key);
-                imgs.add(img);
-
-                if (attrs.length >= KEYED_IMAGE_MIN) {
-                    int r = Integer.parseInt(attrs[KEYED_RED_IDX]);
-                    int g = Integer.parseInt(attrs[KEYED_GREEN_IDX]);
-                    int b = Integer.parseInt(attrs[KEYED_BLUE_IDX]);
-                    Functions.setAlpha(img, screen.color(r, g, b), 0);
-                }
+    private static PImage await(Future<PImage> decoded) {
+        try {
+            return decoded.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted loading images", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
             }
+            throw new IllegalStateException(e.getCause());
         }
     }
 
-    private List<PImage> getImages(Map<String, List<PImage>> images, String key) {
-        List<PImage> imgs = images.get(key);
+    private SpriteSequence getImages(Map<String, SpriteSequence> images, String key) {
+        SpriteSequence imgs = images.get(key);
         if (imgs == null) {
-            imgs = new LinkedList<>();
+            imgs = new SpriteSequence(this.frames);
             images.put(key, imgs);
         }
         return imgs;
     }
 
+    private int addFrame(PImage img) {
+        this.frames.add(img);
+        return this.frames.size() - 1;
+    }
+
+    // shelf packing in sprite order; the frames are nearly all one tile size
+    private void packAtlas() {
+        int count = this.frames.size();
+        int width = 0;
+        long area = 0;
+        for (PImage frame : this.frames) {
+            width = Math.max(width, frame.width);
+            area += (long) frame.width * frame.height;
+        }
+        width = Math.max(width,
+                Math.min(ATLAS_MAX_WIDTH, (int) Math.ceil(Math.sqrt(area))));
+
+        this.spriteX = new int[count];
+        this.spriteY = new int[count];
+        int x = 0;
+        int y = 0;
+        int shelfHeight = 0;
+        for (int i = 0; i < count; i++) {
+            PImage frame = this.frames.get(i);
+            if (x + frame.width > width) {
+                x = 0;
+                y += shelfHeight;
+                shelfHeight = 0;
+            }
+            this.spriteX[i] = x;
+            this.spriteY[i] = y;
+            x += frame.width;
+            shelfHeight = Math.max(shelfHeight, frame.height);
+        }
+
+        this.atlas = new PImage(width, y + shelfHeight, PApplet.ARGB);
+        this.atlas.loadPixels();
+        for (int i = 0; i < count; i++) {
+            copyFrame(this.frames.get(i), this.spriteX[i], this.spriteY[i]);
+        }
+        this.atlas.updatePixels();
+    }
+
+    private void copyFrame(PImage frame, int x, int y) {
+        frame.loadPixels();
+        // an RGB frame's alpha bits mean nothing, but they do in the atlas
+        int alpha = frame.format == PApplet.ARGB ? 0 : OPAQUE;
+        for (int row = 0; row < frame.height; row++) {
+            int from = row * frame.width;
+            int to = (y + row) * this.atlas.width + x;
+            for (int col = 0; col < frame.width; col++) {
+                this.atlas.pixels[to + col] = frame.pixels[from + col] | alpha;
+            }
+        }
+    }
+
+    // an imagelist line whose file is still being decoded
+    private static final class PendingImage {
+        private final String key;
+        private final String file;
+        private final int lineNumber;
+        private boolean keyed;
+        private int keyColor;
+        private boolean formatError;
+        private boolean cached;
+        private Future<PImage> decoded;
+
+        public PendingImage(String key, String file, int lineNumber) {
+            this.key = key;
+            this.file = file;
+            this.lineNumber = lineNumber;
+        }
+    }
 }
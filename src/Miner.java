@@ -3,68 +3,48 @@ import processing.core.PImage;
 import java.util.List;
 import java.util.Optional;
 
-public class Miner implements Entity, Animated, Active{
+public class Miner extends EntityView implements Animated, Active{
 
-    public String kind;
-    public Point position;
-    public List<PImage> images;
-    public int imageIndex;
-    public int actionPeriod;
-
-    private String id;
-    private int resourceLimit;
-    private int resourceCount;
-    private int animationPeriod;
-
-    public Miner(String id, Point position,
+    public Miner(EntityStore store, String id, Point position,
                   List<PImage> images, int resourceLimit, int resourceCount,
                   int actionPeriod, int animationPeriod) {
-        this.kind = "MINER";
-        this.id = id;
-        this.position = position;
-        this.images = images;
-        this.imageIndex = 0;
-        this.resourceLimit = resourceLimit;
-        this.resourceCount = resourceCount;
-        this.actionPeriod = actionPeriod;
-        this.animationPeriod = animationPeriod;
-    }
-
-    public int getAnimationPeriod() {
-        return this.animationPeriod;
+        super(store, MINER_KIND, id, position, images, resourceLimit,
+                resourceCount, actionPeriod, animationPeriod);
     }
 
-    @Override
-    public int getRepeatCount() {
-        return 0;
-    }
-
-    public void nextImage() {
-        this.imageIndex = (this.imageIndex + 1) % this.images.size();
-    }
-
-
-
     public void executeMinerNotFullActivity(WorldModel world, ImageStore imageStore, EventScheduler scheduler) {
-        Optional<Entity> notFullTarget = world.findNearest(this.position, "ORE");
+        // no ore has come within reach since the last look found none
+        int x = getX();
+        int y = getY();
+        long stamp = world.getChangeStamp(x, y, "ORE");
+        if (isStillIdle(stamp)) {
+            scheduler.scheduleEvent(this, getActivityAction(world, imageStore), getActionPeriod());
+            return;
+        }
 
-        if (!notFullTarget.isPresent() ||
-                !moveToNotFull(world, notFullTarget.get(), scheduler) ||
-                !transformNotFull(world, scheduler, imageStore)) {
-            scheduler.scheduleEvent(this, Entity.createActivityAction(world, imageStore, this), this.actionPeriod);
+        boolean mined = moveToNotFull(world, scheduler);
+        if (!mined || !transformNotFull(world, scheduler, imageStore)) {
+            setIdleStamp(!mined && getX() == x && getY() == y ?
+                    stamp : EntityStore.NOT_IDLE);
+            scheduler.scheduleEvent(this, getActivityAction(world, imageStore), getActionPeriod());
         }
     }
 
-    private boolean moveToNotFull(WorldModel world, Entity target, EventScheduler scheduler) {
+    private boolean moveToNotFull(WorldModel world, EventScheduler scheduler) {
+        Optional<Entity> adjacent = world.findAdjacent(getX(), getY(), "ORE");
 
-        // if the miner is adjacent to the target
-        if (Point.adjacent(this.position, target.getPosition())) {
+        // if the miner is adjacent to an ore
+        if (adjacent.isPresent()) {
+            Entity target = adjacent.get();
 
-            // increment the miner's resources
-            this.resourceCount += 1;
+            // remove the target; if someone else took it first there is
+            // nothing to mine this period
+            if (!world.removeEntity(target)) {
+                return false;
+            }
 
-            // remove the target
-            world.removeEntity(target);
+            // increment the miner's resources
+            setResourceCount(getResourceCount() + 1);
 
             // unschedule all of the target's events
             scheduler.unscheduleAllEvents(target);
@@ -72,11 +52,12 @@ public class Miner implements Entity, Animated, Active{
             return true;
         } else {
 
-            // move the miner towards the target
-            Point nextPos = nextPositionMiner(world, target.getPosition());
+            // move the miner down the ore flow field
+            Point position = getPosition();
+            Point nextPos = world.nextStepToward(position, "ORE");
 
             // if the miner isn't already at the next spot they should be
-            if (!this.position.equals(nextPos)) {
+            if (!position.equals(nextPos)) {
 
                 // current occupant is evicted
                 Optional<Entity> occupant = world.getOccupant(nextPos);
@@ -96,16 +77,17 @@ public class Miner implements Entity, Animated, Active{
 
     private boolean transformNotFull(WorldModel world,
                                      EventScheduler scheduler, ImageStore imageStore) {
-        if (this.resourceCount >= this.resourceLimit) {
-            Entity miner = Entity.createMinerFull(this.id, this.resourceLimit,
-                    this.position, this.actionPeriod, this.animationPeriod,
-                    this.images);
+        if (getResourceCount() >= getResourceLimit()) {
+            Entity miner = Entity.createMinerFull(world.getStore(), getId(), getResourceLimit(),
+                    getPosition(), getActionPeriod(), getAnimationPeriod(),
+                    getImages());
 
             world.removeEntity(this);
             scheduler.unscheduleAllEvents(this);
 
-            world.addEntity(miner);
-            scheduler.scheduleActions(miner, world, imageStore);
+            if (world.addEntity(miner)) {
+                scheduler.scheduleActions(miner, world, imageStore);
+            }
 
             return true;
         }
@@ -113,41 +95,14 @@ public class Miner implements Entity, Animated, Active{
         return false;
     }
 
-
-    private Point nextPositionMiner(WorldModel world, Point destPos) {
-        int horiz = Integer.signum(destPos.x - this.position.x);
-
-        Point newPos = new Point(this.position.x + horiz,
-                this.position.y);
-
-        if (horiz == 0 || world.isOccupied(newPos)) {
-
-            int vert = Integer.signum(destPos.y - this.position.y);
-
-            newPos = new Point(this.position.x, this.position.y + vert);
-
-            if (vert == 0 || world.isOccupied(newPos)) {
-
-                newPos = this.position;
-            }
-        }
-
-        return newPos;
-    }
-
+    // a step toward ore that neither mines nor fills the miner up
     @Override
-    public Point getPosition() {
-        return this.position;
-    }
-
-    @Override
-    public void setPosition(Point point) {
-        this.position = point;
-    }
-
-    @Override
-    public String getKind() {
-        return this.kind;
+    public boolean isLocalActivity(WorldModel world) {
+        int x = getX();
+        int y = getY();
+        return getResourceCount() < getResourceLimit() &&
+                world.isWithinHorizon(x, y, "ORE") &&
+                !world.findAdjacent(x, y, "ORE").isPresent();
     }
 
     @Override
@@ -155,19 +110,4 @@ public class Miner implements Entity, Animated, Active{
                                 ImageStore imageStore, EventScheduler scheduler) {
         executeMinerNotFullActivity(world, imageStore, scheduler);
     }
-
-    @Override
-    public int getActionPeriod() {
-        return this.actionPeriod;
-    }
-
-    @Override
-    public List<PImage> getImages(){
-        return this.images;
-    }
-
-    @Override
-    public int getImageIndex(){
-        return this.imageIndex;
-    }
 }
@@ -3,65 +3,41 @@ import processing.core.PImage;
 import java.util.List;
 import java.util.Optional;
 
-public class MinerFull implements Entity, Animated, Active {
-    public String kind;
-    public Point position;
-    public List<PImage> images;
-    public int imageIndex;
-    public int actionPeriod;
+public class MinerFull extends EntityView implements Animated, Active {
 
-    private String id;
-    private int resourceLimit;
-    private int resourceCount;
-    private int animationPeriod;
-
-    public MinerFull(String id, Point position,
+    public MinerFull(EntityStore store, String id, Point position,
                  List<PImage> images, int resourceLimit, int resourceCount,
                  int actionPeriod, int animationPeriod) {
-        this.kind = "MINERFULL";
-        this.id = id;
-        this.position = position;
-        this.images = images;
-        this.imageIndex = 0;
-        this.resourceLimit = resourceLimit;
-        this.resourceCount = resourceCount;
-        this.actionPeriod = actionPeriod;
-        this.animationPeriod = animationPeriod;
-    }
-
-    public int getAnimationPeriod() {
-        return this.animationPeriod;
+        super(store, MINERFULL_KIND, id, position, images, resourceLimit,
+                resourceCount, actionPeriod, animationPeriod);
     }
 
-    @Override
-    public int getRepeatCount() {
-        return 0;
-    }
-
-    public void nextImage() {
-        this.imageIndex = (this.imageIndex + 1) % this.images.size();
-    }
-
-
     public void executeMinerFullActivity(WorldModel world, ImageStore imageStore, EventScheduler scheduler) {
-        Optional<Entity> fullTarget = world.findNearest(this.position, "BLACKSMITH");
+        // no blacksmith has come within reach since the last look found none
+        int x = getX();
+        int y = getY();
+        long stamp = world.getChangeStamp(x, y, "BLACKSMITH");
+        if (isStillIdle(stamp)) {
+            scheduler.scheduleEvent(this, getActivityAction(world, imageStore), getActionPeriod());
+            return;
+        }
 
-        if (fullTarget.isPresent() && moveToFull(world, fullTarget.get(), scheduler)) {
+        if (moveToFull(world, scheduler)) {
             transformFull(world, scheduler, imageStore);
         } else {
-            scheduler.scheduleEvent(this, Entity.createActivityAction(world, imageStore, this), this.actionPeriod);
+            setIdleStamp(getX() == x && getY() == y ? stamp : EntityStore.NOT_IDLE);
+            scheduler.scheduleEvent(this, getActivityAction(world, imageStore), getActionPeriod());
         }
     }
 
-
-    private boolean moveToFull(WorldModel world,
-                               Entity target, EventScheduler scheduler) {
-        if (Point.adjacent(this.position, target.getPosition())) {
+    private boolean moveToFull(WorldModel world, EventScheduler scheduler) {
+        if (world.findAdjacent(getX(), getY(), "BLACKSMITH").isPresent()) {
             return true;
         } else {
-            Point nextPos = nextPositionMiner(world, target.getPosition());
+            Point position = getPosition();
+            Point nextPos = world.nextStepToward(position, "BLACKSMITH");
 
-            if (!this.position.equals(nextPos)) {
+            if (!position.equals(nextPos)) {
                 Optional<Entity> occupant = world.getOccupant(nextPos);
                 if (occupant.isPresent()) {
                     scheduler.unscheduleAllEvents(occupant.get());
@@ -76,56 +52,25 @@ public class MinerFull implements Entity, Animated, Active {
     private void transformFull(WorldModel world,
                                EventScheduler scheduler, ImageStore imageStore) {
         // the active miner becomes an empty miner
-        Entity miner = Entity.createMinerNotFull(this.id, this.resourceLimit,
-                this.position, this.actionPeriod, this.animationPeriod,
-                this.images);
+        Entity miner = Entity.createMinerNotFull(world.getStore(), getId(), getResourceLimit(),
+                getPosition(), getActionPeriod(), getAnimationPeriod(),
+                getImages());
 
         world.removeEntity(this);
         scheduler.unscheduleAllEvents(this);
 
-        world.addEntity(miner);
-        scheduler.scheduleActions(miner, world, imageStore);
-    }
-
-    private Point nextPositionMiner(WorldModel world, Point destPos) {
-        int horiz = Integer.signum(destPos.x - this.position.x);
-
-        Point newPos = new Point(this.position.x + horiz,
-                this.position.y);
-
-        if (horiz == 0 || world.isOccupied(newPos)) {
-
-            int vert = Integer.signum(destPos.y - this.position.y);
-
-            newPos = new Point(this.position.x, this.position.y + vert);
-
-            if (vert == 0 || world.isOccupied(newPos)) {
-
-                newPos = this.position;
-            }
+        if (world.addEntity(miner)) {
+            scheduler.scheduleActions(miner, world, imageStore);
         }
-
-        return newPos;
-    }
-
-    @Override
-    public Point getPosition() {
-        return this.position;
-    }
-
-    @Override
-    public void setPosition(Point point) {
-        this.position = point;
     }
 
+    // a step toward a blacksmith that is not there yet
     @Override
-    public String getKind() {
-        return this.kind;
-    }
-
-    @Override
-    public int getActionPeriod() {
-        return this.actionPeriod;
+    public boolean isLocalActivity(WorldModel world) {
+        int x = getX();
+        int y = getY();
+        return world.isWithinHorizon(x, y, "BLACKSMITH") &&
+                !world.findAdjacent(x, y, "BLACKSMITH").isPresent();
     }
 
     @Override
@@ -133,14 +78,4 @@ public class MinerFull implements Entity, Animated, Active {
                                 ImageStore imageStore, EventScheduler scheduler) {
         executeMinerFullActivity(world, imageStore, scheduler);
     }
-
-    @Override
-    public List<PImage> getImages(){
-        return this.images;
-    }
-
-    @Override
-    public int getImageIndex(){
-        return this.imageIndex;
-    }
 }
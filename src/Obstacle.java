@@ -1,61 +1,13 @@
 import processing.core.PImage;
 
 import java.util.List;
-import java.util.Optional;
 
-public class Obstacle implements Entity {
-    public String kind;
-    public Point position;
-    public List<PImage> images;
-    public int imageIndex;
-    public int actionPeriod;
+public class Obstacle extends EntityView {
 
-    private String id;
-    private int resourceLimit;
-    private int resourceCount;
-    private int animationPeriod;
-
-    public Obstacle(String id, Point position,
+    public Obstacle(EntityStore store, String id, Point position,
                   List<PImage> images, int resourceLimit, int resourceCount,
                   int actionPeriod, int animationPeriod) {
-        this.kind = "OBSTACLE";
-        this.id = id;
-        this.position = position;
-        this.images = images;
-        this.imageIndex = 0;
-        this.resourceLimit = resourceLimit;
-        this.resourceCount = resourceCount;
-        this.actionPeriod = actionPeriod;
-        this.animationPeriod = animationPeriod;
-    }
-
-    public void nextImage() {
-        this.imageIndex = (this.imageIndex + 1) % this.images.size();
-    }
-
-    @Override
-    public Point getPosition() {
-        return this.position;
-    }
-
-    @Override
-    public void setPosition(Point point) {
-        this.position = point;
+        super(store, OBSTACLE_KIND, id, position, images, resourceLimit,
+                resourceCount, actionPeriod, animationPeriod);
     }
-
-    @Override
-    public String getKind() {
-        return this.kind;
-    }
-
-    @Override
-    public List<PImage> getImages(){
-        return this.images;
-    }
-
-    @Override
-    public int getImageIndex(){
-        return this.imageIndex;
-    }
-
 }
@@ -3,141 +3,68 @@ import processing.core.PImage;
 import java.util.List;
 import java.util.Optional;
 
-public class OreBlob implements Entity, Animated, Active {
-    public String kind;
-    public Point position;
-    public List<PImage> images;
-    public int imageIndex;
-    public int actionPeriod;
+public class OreBlob extends EntityView implements Animated, Active {
 
-    private String id;
-    private int resourceLimit;
-    private int resourceCount;
-    private int animationPeriod;
-
-    public OreBlob(String id, Point position,
+    public OreBlob(EntityStore store, String id, Point position,
                   List<PImage> images, int resourceLimit, int resourceCount,
                   int actionPeriod, int animationPeriod) {
-        this.kind = "OREBLOB";
-        this.id = id;
-        this.position = position;
-        this.images = images;
-        this.imageIndex = 0;
-        this.resourceLimit = resourceLimit;
-        this.resourceCount = resourceCount;
-        this.actionPeriod = actionPeriod;
-        this.animationPeriod = animationPeriod;
-    }
-
-    public int getAnimationPeriod() {
-        return this.animationPeriod;
-    }
-
-    @Override
-    public int getRepeatCount() {
-        return 0;
-    }
-
-    public void nextImage() {
-        this.imageIndex = (this.imageIndex + 1) % this.images.size();
+        super(store, OREBLOB_KIND, id, position, images, resourceLimit,
+                resourceCount, actionPeriod, animationPeriod);
     }
 
     public void executeOreBlobActivity(WorldModel world,
                                        ImageStore imageStore, EventScheduler scheduler) {
-        Optional<Entity> blobTarget = world.findNearest(this.position, "VEIN");
-        long nextPeriod = this.actionPeriod;
+        Optional<Entity> blobTarget = world.findAdjacent(getX(), getY(), "VEIN");
+        long nextPeriod = getActionPeriod();
 
         if (blobTarget.isPresent()) {
             Point tgtPos = blobTarget.get().getPosition();
 
-            if (moveToOreBlob(world, blobTarget.get(), scheduler)) {
-                Entity quake = Entity.createQuake(tgtPos, imageStore.getImageList(QUAKE_KEY));
+            // another blob may have taken the vein first
+            if (world.removeEntity(blobTarget.get())) {
+                scheduler.unscheduleAllEvents(blobTarget.get());
 
-                world.addEntity(quake);
-                nextPeriod += this.actionPeriod;
-                scheduler.scheduleActions(quake, world, imageStore);
-            }
-        }
+                Entity quake = Entity.createQuake(world.getStore(), tgtPos, imageStore.getImageList(QUAKE_KEY));
 
-        scheduler.scheduleEvent(this, Entity.createActivityAction(world, imageStore, this), nextPeriod);
-    }
-
-
-    private boolean moveToOreBlob(WorldModel world, Entity target, EventScheduler scheduler) {
-        if (Point.adjacent(this.position, target.getPosition())) {
-            world.removeEntity(target);
-            scheduler.unscheduleAllEvents(target);
-            return true;
-        } else {
-            Point nextPos = nextPositionOreBlob(world, target.getPosition());
-
-            if (!this.position.equals(nextPos)) {
-                Optional<Entity> occupant = world.getOccupant(nextPos);
-                if (occupant.isPresent()) {
-                    scheduler.unscheduleAllEvents(occupant.get());
+                nextPeriod += getActionPeriod();
+                if (world.addEntity(quake)) {
+                    scheduler.scheduleActions(quake, world, imageStore);
                 }
-
-                world.moveEntity(this, nextPos);
-            }
-            return false;
-        }
-    }
-
-    private Point nextPositionOreBlob(WorldModel world,
-                                      Point destPos) {
-        int horiz = Integer.signum(destPos.x - this.position.x);
-        Point newPos = new Point(this.position.x + horiz,
-                this.position.y);
-
-        Optional<Entity> occupant = world.getOccupant(newPos);
-
-        if (horiz == 0 ||
-                (occupant.isPresent() && !(occupant.get().getKind() == "ORE"))) {
-            int vert = Integer.signum(destPos.y - this.position.y);
-            newPos = new Point(this.position.x, this.position.y + vert);
-            occupant = world.getOccupant(newPos);
-
-            if (vert == 0 ||
-                    (occupant.isPresent() && !(occupant.get().getKind() == "ORE"))) {
-                newPos = this.position;
             }
+        } else {
+            moveToOreBlob(world, scheduler);
         }
 
-        return newPos;
+        scheduler.scheduleEvent(this, getActivityAction(world, imageStore), nextPeriod);
     }
 
-    @Override
-    public Point getPosition() {
-        return this.position;
-    }
+    private void moveToOreBlob(WorldModel world, EventScheduler scheduler) {
+        // follow the vein flow field, which runs over ore
+        Point position = getPosition();
+        Point nextPos = world.nextStepToward(position, "VEIN");
 
-    @Override
-    public void setPosition(Point point) {
-        this.position = point;
-    }
+        if (!position.equals(nextPos)) {
+            Optional<Entity> occupant = world.getOccupant(nextPos);
+            if (occupant.isPresent()) {
+                scheduler.unscheduleAllEvents(occupant.get());
+            }
 
-    @Override
-    public String getKind() {
-        return this.kind;
+            world.moveEntity(this, nextPos);
+        }
     }
 
+    // a step that neither takes a vein nor evicts an ore on the way
     @Override
-    public int getActionPeriod() {
-        return this.actionPeriod;
+    public boolean isLocalActivity(WorldModel world) {
+        int x = getX();
+        int y = getY();
+        return world.isWithinHorizon(x, y, "VEIN") &&
+                !world.findAdjacent(x, y, "VEIN").isPresent() &&
+                !world.hasNeighbour(x, y, "ORE");
     }
 
     @Override
     public void executeActivity(WorldModel world, ImageStore imageStore, EventScheduler scheduler) {
         executeOreBlobActivity(world, imageStore, scheduler);
     }
-
-    @Override
-    public List<PImage> getImages(){
-        return this.images;
-    }
-
-    @Override
-    public int getImageIndex(){
-        return this.imageIndex;
-    }
 }
@@ -36,5 +36,10 @@ final class Point {
         return deltaX * deltaX + deltaY * deltaY;
     }
 
+    // the number of steps between them on the grid
+    public static int manhattanDistance(Point p1, Point p2) {
+        return Math.abs(p1.x - p2.x) + Math.abs(p1.y - p2.y);
+    }
+
 
 }
@@ -1,47 +1,14 @@
 import processing.core.PImage;
 
 import java.util.List;
-import java.util.Optional;
 
-public class Quake implements Entity, Animated, Active {
-    public String kind;
-    public Point position;
-    public List<PImage> images;
-    public int imageIndex;
-    public int actionPeriod;
+public class Quake extends EntityView implements Animated, Active {
 
-    private String id;
-    private int resourceLimit;
-    private int resourceCount;
-    private int animationPeriod;
-
-
-
-    public Quake(String id, Point position,
+    public Quake(EntityStore store, String id, Point position,
                   List<PImage> images, int resourceLimit, int resourceCount,
                   int actionPeriod, int animationPeriod) {
-        this.kind = "QUAKE";
-        this.id = id;
-        this.position = position;
-        this.images = images;
-        this.imageIndex = 0;
-        this.resourceLimit = resourceLimit;
-        this.resourceCount = resourceCount;
-        this.actionPeriod = actionPeriod;
-        this.animationPeriod = animationPeriod;
-    }
-
-    public int getAnimationPeriod() {
-        return this.animationPeriod;
-    }
-
-    @Override
-    public int getRepeatCount() {
-        return 0;
-    }
-
-    public void nextImage() {
-        this.imageIndex = (this.imageIndex + 1) % this.images.size();
+        super(store, QUAKE_KIND, id, position, images, resourceLimit,
+                resourceCount, actionPeriod, animationPeriod);
     }
 
     public void executeQuakeActivity(WorldModel world,
@@ -50,38 +17,8 @@ public class Quake implements Entity, Animated, Active {
         world.removeEntity(this);
     }
 
-    @Override
-    public Point getPosition() {
-        return this.position;
-    }
-
-    @Override
-    public void setPosition(Point point) {
-        this.position = point;
-    }
-
-    @Override
-    public String getKind() {
-        return this.kind;
-    }
-
-    @Override
-    public int getActionPeriod() {
-        return this.actionPeriod;
-    }
-
     @Override
     public void executeActivity(WorldModel world, ImageStore imageStore, EventScheduler scheduler) {
         executeQuakeActivity(world, imageStore, scheduler);
     }
-
-    @Override
-    public List<PImage> getImages(){
-        return this.images;
-    }
-
-    @Override
-    public int getImageIndex(){
-        return this.imageIndex;
-    }
 }
@@ -0,0 +1,274 @@
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Consumer;
+
+/*
+   The world cut into REGION_SIZE square regions, each owned by an actor
+   with a queue of its own for the events of the entities in it and a
+   mailbox.  Actors are not threads: one with nothing due is simply not
+   run, which costs a look at its wake time per step, and those that are
+   due run as tasks on the common fork-join pool.
+
+   A step runs the regions in four phases by the parity of their column
+   and row, so no two regions of a phase are neighbours and the footprints
+   of their local events (Action.isLocal) cannot meet.  An actor fires its
+   due events in order.  One whose entity has walked into another region
+   is posted to that region's mailbox, the entity entering it; one that is
+   not local, such as a miner removing ore or a blob taking a vein and
+   spawning a quake, is posted to the world's mailbox, since it changes the
+   entity set, the store or the flow fields.  Once the phases are done the
+   world fires its mail one event at a time, in time order.  Whatever is
+   scheduled goes to the region the entity is in by then.
+
+   Mail is delivered at the end of each phase in region order, so the
+   outcome does not depend on the number of threads.  It is not the serial
+   scheduler's outcome, though: within a step the events of one phase all
+   run before those of the next, even the ones that are due later.
+*/
+final class RegionActors implements EventQueue {
+    // a multiple of the spatial index's buckets, and far wider than REACH
+    private static final int REGION_SIZE = 32;
+
+    private static final Comparator<Event> BY_TIME =
+            Comparator.comparingLong(event -> event.time);
+
+    private final EventScheduler scheduler;
+    private final int numRows;
+    private final int numCols;
+    private final int regionCols;
+    private final Actor[] actors;
+    // regions by phase, in region order
+    private final Actor[][] phases;
+
+    // the world's mailbox
+    private final List<Event> worldMail;
+
+    private final List<Actor> due;
+
+    public RegionActors(EventScheduler scheduler, int numRows, int numCols) {
+        this.scheduler = scheduler;
+        this.numRows = numRows;
+        this.numCols = numCols;
+        this.regionCols = (numCols + REGION_SIZE - 1) / REGION_SIZE;
+        int regionRows = (numRows + REGION_SIZE - 1) / REGION_SIZE;
+
+        this.actors = new Actor[this.regionCols * regionRows];
+        int[] phaseSizes = new int[4];
+        for (int i = 0; i < this.actors.length; i++) {
+            this.actors[i] = new Actor(i);
+            phaseSizes[phaseOf(i)]++;
+        }
+        this.phases = new Actor[4][];
+        for (int phase = 0; phase < 4; phase++) {
+            this.phases[phase] = new Actor[phaseSizes[phase]];
+            phaseSizes[phase] = 0;
+        }
+        for (Actor actor : this.actors) {
+            int phase = phaseOf(actor.region);
+            this.phases[phase][phaseSizes[phase]++] = actor;
+        }
+
+        this.worldMail = new ArrayList<>();
+        this.due = new ArrayList<>();
+    }
+
+    private int phaseOf(int region) {
+        return (region % this.regionCols & 1) | (region / this.regionCols & 1) << 1;
+    }
+
+    // the region the entity is in; anything off the grid is left to region 0,
+    // which passes it on to the world
+    private int regionOf(Entity entity) {
+        int x = entity.getX();
+        int y = entity.getY();
+        if (!withinBounds(x, y)) {
+            return 0;
+        }
+        return y / REGION_SIZE * this.regionCols + x / REGION_SIZE;
+    }
+
+    private boolean withinBounds(int x, int y) {
+        return y >= 0 && y < this.numRows && x >= 0 && x < this.numCols;
+    }
+
+    public void updateOnTime(long time) {
+        // what a pass delivers may be due already, as with the serial
+        // scheduler's queue
+        boolean ran;
+        do {
+            ran = false;
+            for (Actor[] phase : this.phases) {
+                for (Actor actor : phase) {
+                    if (actor.wake < time) {
+                        actor.now = time;
+                        this.due.add(actor);
+                    }
+                }
+                if (this.due.isEmpty()) {
+                    continue;
+                }
+
+                ran = true;
+                if (this.due.size() == 1) {
+                    this.due.get(0).run();
+                } else {
+                    List<ForkJoinTask<?>> tasks = new ArrayList<>(this.due.size());
+                    for (Actor actor : this.due) {
+                        tasks.add(ForkJoinTask.adapt(actor));
+                    }
+                    ForkJoinTask.invokeAll(tasks);
+                }
+
+                for (Actor actor : this.due) {
+                    for (Event event : actor.outbox) {
+                        add(event);
+                    }
+                    actor.outbox.clear();
+                    this.worldMail.addAll(actor.worldOutbox);
+                    actor.worldOutbox.clear();
+                }
+                this.due.clear();
+            }
+
+            if (!this.worldMail.isEmpty()) {
+                ran = true;
+                fireWorldMail();
+            }
+        } while (ran);
+    }
+
+    private void fireWorldMail() {
+        // what these schedule is added straight to the actors' mailboxes
+        List<Event> mail = new ArrayList<>(this.worldMail);
+        this.worldMail.clear();
+        mail.sort(BY_TIME);
+        for (Event event : mail) {
+            Action action = event.action;
+            boolean live = event.generation == event.entity.getGeneration();
+            this.scheduler.recycleEvent(event);
+            if (live) {
+                action.executeAction(this.scheduler);
+            }
+        }
+    }
+
+    // posts the event to the mailbox of the region its entity is in, when
+    // no actor is running
+    @Override
+    public void add(Event event) {
+        Actor owner = this.actors[regionOf(event.entity)];
+        owner.mailbox.add(event);
+        owner.wake = Math.min(owner.wake, event.time);
+    }
+
+    // events are only fired by updateOnTime
+    @Override
+    public Event pollDue(long time) {
+        return null;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        for (Actor actor : this.actors) {
+            if (!actor.queue.isEmpty() || !actor.mailbox.isEmpty()) {
+                return false;
+            }
+        }
+        return this.worldMail.isEmpty();
+    }
+
+    @Override
+    public void forEach(Consumer<Event> consumer) {
+        for (Actor actor : this.actors) {
+            actor.queue.forEach(consumer);
+            actor.mailbox.forEach(consumer);
+        }
+        this.worldMail.forEach(consumer);
+    }
+
+    private final class Actor implements Runnable, EventQueue {
+        private final int region;
+        private final HeapEventQueue queue;
+        private final List<Event> mailbox;
+        // what this actor sends while it runs, delivered when its phase ends
+        private final List<Event> outbox;
+        private final List<Event> worldOutbox;
+        private final EventScheduler scheduler;
+
+        // when it next has something to do, and the time it is run up to
+        private long wake;
+        private long now;
+
+        public Actor(int region) {
+            this.region = region;
+            this.queue = new HeapEventQueue();
+            this.mailbox = new ArrayList<>();
+            this.outbox = new ArrayList<>();
+            this.worldOutbox = new ArrayList<>();
+            this.scheduler = new EventScheduler(RegionActors.this.scheduler, this);
+            this.wake = Long.MAX_VALUE;
+        }
+
+        @Override
+        public void run() {
+            for (Event event : this.mailbox) {
+                this.queue.add(event);
+            }
+            this.mailbox.clear();
+
+            Event next;
+            while ((next = this.queue.pollDue(this.now)) != null) {
+                fire(next);
+            }
+            this.wake = this.queue.nextTime();
+        }
+
+        private void fire(Event event) {
+            // events left behind by unscheduleAllEvents are dropped here
+            if (event.generation != event.entity.getGeneration()) {
+                this.scheduler.recycleEvent(event);
+                return;
+            }
+
+            Entity entity = event.entity;
+            if (!withinBounds(entity.getX(), entity.getY())) {
+                this.worldOutbox.add(event);
+            } else if (regionOf(entity) != this.region) {
+                this.outbox.add(event);
+            } else if (!event.action.isLocal()) {
+                this.worldOutbox.add(event);
+            } else {
+                Action action = event.action;
+                this.scheduler.recycleEvent(event);
+                action.executeAction(this.scheduler);
+            }
+        }
+
+        // what this actor's events schedule
+        @Override
+        public void add(Event event) {
+            if (regionOf(event.entity) == this.region) {
+                this.queue.add(event);
+            } else {
+                this.outbox.add(event);
+            }
+        }
+
+        @Override
+        public Event pollDue(long time) {
+            return null;
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return this.queue.isEmpty();
+        }
+
+        @Override
+        public void forEach(Consumer<Event> consumer) {
+            this.queue.forEach(consumer);
+        }
+    }
+}
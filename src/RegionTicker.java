@@ -0,0 +1,315 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Consumer;
+
+/*
+   Fires a scheduler's due events on the common fork-join pool without
+   changing what they do.  The world is cut into square regions of
+   REGION_SIZE cells, and the due events are taken in the order the serial
+   scheduler would fire them.
+
+   A run of consecutive local events (Action.isLocal: they touch nothing
+   but cells within REACH of their entity, so not the entity set, the
+   store's free list, the flow fields or Entity.rand) is executed together
+   in waves.  Each event goes into the earliest wave that comes after every
+   earlier event of the run in a neighbouring region and no earlier than
+   the last one in its own region.  Within a wave no two regions with
+   events are neighbours, so their footprints are disjoint and they run
+   concurrently, each region's events on one thread in order; any two
+   events that could touch the same cell still run in their serial order.
+
+   Anything that is not local ends the run and is fired on its own, as
+   the serial scheduler would.  What a run's events schedule is held back
+   and added to the queue in event order once the run is done, so the
+   queue sees the same sequence too.
+*/
+final class RegionTicker {
+    // one step of movement beyond the furthest a vein places ore
+    public static final int REACH = Entity.ORE_REACH + 1;
+
+    // wide enough that footprints in non-adjacent regions never meet, and
+    // a multiple of the spatial index's buckets so no bucket is shared
+    // between regions
+    private static final int REGION_SIZE = 16;
+
+    // shorter runs are fired in place, it is not worth the pool's time
+    private static final int MIN_PARALLEL_RUN = 64;
+
+    private final EventScheduler scheduler;
+    private final int numRows;
+    private final int numCols;
+    private final int regionCols;
+    private final int regionRows;
+
+    // the due events of the current batch, in firing order
+    private Action[] actions;
+    private Entity[] entities;
+    private int[] generations;
+    private int batchSize;
+
+    // the run being collected, as indices into the batch
+    private int[] run;
+    private int runSize;
+    private final BitSet runSlots;
+
+    // per run event
+    private int[] regions;
+    private int[] waves;
+    private HeldEvents[] heldBy;
+    private int[] heldFrom;
+    private int[] heldTo;
+
+    // the last wave the current run gave each region, valid where stamped
+    private final int[] lastWave;
+    private final int[] stamps;
+    private int runStamp;
+
+    public RegionTicker(EventScheduler scheduler, int numRows, int numCols) {
+        this.scheduler = scheduler;
+        this.numRows = numRows;
+        this.numCols = numCols;
+        this.regionCols = (numCols + REGION_SIZE - 1) / REGION_SIZE;
+        this.regionRows = (numRows + REGION_SIZE - 1) / REGION_SIZE;
+
+        this.actions = new Action[64];
+        this.entities = new Entity[64];
+        this.generations = new int[64];
+        this.run = new int[64];
+        this.runSlots = new BitSet();
+        this.regions = new int[64];
+        this.waves = new int[64];
+        this.heldBy = new HeldEvents[64];
+        this.heldFrom = new int[64];
+        this.heldTo = new int[64];
+
+        this.lastWave = new int[this.regionCols * this.regionRows];
+        this.stamps = new int[this.regionCols * this.regionRows];
+    }
+
+    public void updateOnTime(long time) {
+        // what the batch schedules for now comes after all of it, as it
+        // would have with the serial scheduler
+        while (drain(time) > 0) {
+            for (int i = 0; i < this.batchSize; i++) {
+                fire(i);
+            }
+            flushRun();
+            Arrays.fill(this.actions, 0, this.batchSize, null);
+            Arrays.fill(this.entities, 0, this.batchSize, null);
+        }
+    }
+
+    private int drain(long time) {
+        this.batchSize = 0;
+        Event next;
+        while ((next = this.scheduler.pollDue(time)) != null) {
+            if (this.batchSize == this.actions.length) {
+                int capacity = this.batchSize * 2;
+                this.actions = Arrays.copyOf(this.actions, capacity);
+                this.entities = Arrays.copyOf(this.entities, capacity);
+                this.generations = Arrays.copyOf(this.generations, capacity);
+            }
+            this.actions[this.batchSize] = next.action;
+            this.entities[this.batchSize] = next.entity;
+            this.generations[this.batchSize] = next.generation;
+            this.batchSize++;
+            this.scheduler.recycleEvent(next);
+        }
+        return this.batchSize;
+    }
+
+    private void fire(int i) {
+        Entity entity = this.entities[i];
+
+        // an entity's own events may move it, so it only runs once per run
+        if (this.runSlots.get(entity.getSlot())) {
+            flushRun();
+        }
+
+        // nothing in a run unschedules anyone, so liveness can be read early
+        if (this.generations[i] != entity.getGeneration()) {
+            return;
+        }
+
+        if (withinBounds(entity.getX(), entity.getY()) && this.actions[i].isLocal()) {
+            addToRun(i);
+        } else {
+            flushRun();
+            this.actions[i].executeAction(this.scheduler);
+        }
+    }
+
+    private boolean withinBounds(int x, int y) {
+        return y >= 0 && y < this.numRows && x >= 0 && x < this.numCols;
+    }
+
+    private void addToRun(int i) {
+        if (this.runSize == this.run.length) {
+            int capacity = this.runSize * 2;
+            this.run = Arrays.copyOf(this.run, capacity);
+            this.regions = Arrays.copyOf(this.regions, capacity);
+            this.waves = Arrays.copyOf(this.waves, capacity);
+            this.heldBy = Arrays.copyOf(this.heldBy, capacity);
+            this.heldFrom = Arrays.copyOf(this.heldFrom, capacity);
+            this.heldTo = Arrays.copyOf(this.heldTo, capacity);
+        }
+        this.run[this.runSize++] = i;
+        this.runSlots.set(this.entities[i].getSlot());
+    }
+
+    private void flushRun() {
+        if (this.runSize == 0) {
+            return;
+        }
+
+        if (this.runSize < MIN_PARALLEL_RUN) {
+            for (int k = 0; k < this.runSize; k++) {
+                this.actions[this.run[k]].executeAction(this.scheduler);
+            }
+        } else {
+            int waveCount = assignWaves();
+            runWaves(waveCount);
+
+            // hand over what the run scheduled, in event order
+            for (int k = 0; k < this.runSize; k++) {
+                this.heldBy[k].addTo(this.scheduler, this.heldFrom[k], this.heldTo[k]);
+            }
+            Arrays.fill(this.heldBy, 0, this.runSize, null);
+        }
+
+        for (int k = 0; k < this.runSize; k++) {
+            this.runSlots.clear(this.entities[this.run[k]].getSlot());
+        }
+        this.runSize = 0;
+    }
+
+    private int assignWaves() {
+        if (++this.runStamp == 0) {
+            Arrays.fill(this.stamps, 0);
+            this.runStamp = 1;
+        }
+
+        int waveCount = 0;
+        for (int k = 0; k < this.runSize; k++) {
+            Entity entity = this.entities[this.run[k]];
+            int regionCol = entity.getX() / REGION_SIZE;
+            int regionRow = entity.getY() / REGION_SIZE;
+            int region = regionRow * this.regionCols + regionCol;
+
+            int wave = this.stamps[region] == this.runStamp ? this.lastWave[region] : 0;
+            for (int row = Math.max(regionRow - 1, 0);
+                 row <= Math.min(regionRow + 1, this.regionRows - 1); row++) {
+                for (int col = Math.max(regionCol - 1, 0);
+                     col <= Math.min(regionCol + 1, this.regionCols - 1); col++) {
+                    int neighbour = row * this.regionCols + col;
+                    if (neighbour != region && this.stamps[neighbour] == this.runStamp) {
+                        wave = Math.max(wave, this.lastWave[neighbour] + 1);
+                    }
+                }
+            }
+
+            this.lastWave[region] = wave;
+            this.stamps[region] = this.runStamp;
+            this.regions[k] = region;
+            this.waves[k] = wave;
+            waveCount = Math.max(waveCount, wave + 1);
+        }
+        return waveCount;
+    }
+
+    private void runWaves(int waveCount) {
+        // run events by wave, and within a wave by region then event order
+        int[] starts = new int[waveCount + 1];
+        for (int k = 0; k < this.runSize; k++) {
+            starts[this.waves[k] + 1]++;
+        }
+        for (int wave = 0; wave < waveCount; wave++) {
+            starts[wave + 1] += starts[wave];
+        }
+        long[] order = new long[this.runSize];
+        int[] next = Arrays.copyOf(starts, waveCount);
+        for (int k = 0; k < this.runSize; k++) {
+            order[next[this.waves[k]]++] = (long) this.regions[k] << 32 | k;
+        }
+
+        List<RegionEvents> tasks = new ArrayList<>();
+        for (int wave = 0; wave < waveCount; wave++) {
+            Arrays.sort(order, starts[wave], starts[wave + 1]);
+            int from = starts[wave];
+            for (int to = from + 1; to <= starts[wave + 1]; to++) {
+                if (to == starts[wave + 1] || order[to] >>> 32 != order[from] >>> 32) {
+                    tasks.add(new RegionEvents(order, from, to));
+                    from = to;
+                }
+            }
+
+            if (tasks.size() == 1) {
+                tasks.get(0).compute();
+            } else {
+                ForkJoinTask.invokeAll(tasks);
+            }
+            tasks.clear();
+        }
+    }
+
+    // one region's events of one wave, in order
+    private final class RegionEvents extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final long[] order;
+        private final int from;
+        private final int to;
+
+        public RegionEvents(long[] order, int from, int to) {
+            this.order = order;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            HeldEvents held = new HeldEvents();
+            EventScheduler scheduler = new EventScheduler(
+                    RegionTicker.this.scheduler, held);
+            for (int i = this.from; i < this.to; i++) {
+                int k = (int) this.order[i];
+                RegionTicker.this.heldBy[k] = held;
+                RegionTicker.this.heldFrom[k] = held.events.size();
+                RegionTicker.this.actions[RegionTicker.this.run[k]]
+                        .executeAction(scheduler);
+                RegionTicker.this.heldTo[k] = held.events.size();
+            }
+        }
+    }
+
+    // what one region's events scheduled, waiting for the run to finish
+    private static final class HeldEvents implements EventQueue {
+        private final List<Event> events = new ArrayList<>();
+
+        public void add(Event event) {
+            this.events.add(event);
+        }
+
+        public Event pollDue(long time) {
+            return null;
+        }
+
+        public boolean isEmpty() {
+            return this.events.isEmpty();
+        }
+
+        public void forEach(Consumer<Event> consumer) {
+            this.events.forEach(consumer);
+        }
+
+        public void addTo(EventScheduler scheduler, int from, int to) {
+            for (int i = from; i < to; i++) {
+                scheduler.addEvent(this.events.get(i));
+            }
+        }
+    }
+}
@@ -0,0 +1,122 @@
+import java.util.Arrays;
+import java.util.concurrent.locks.StampedLock;
+
+/*
+   What the view needs of the visible region, handed from the simulation
+   thread to the render thread.  The simulation fills the back frame and
+   swaps it to the front under the write lock; the view copies the front
+   frame out under an optimistic read, and only takes the read lock if a
+   swap raced with its copy.  The back frame is never read, so neither side
+   waits on the other for longer than one copy of a few hundred ints.
+
+   The view asks for the region it wants with requestOrigin, and each frame
+   records the origin it was captured at.
+*/
+final class RenderSnapshot {
+    private final StampedLock lock;
+    private Frame front;
+    private Frame back;
+    // row in the high half, col in the low half
+    private volatile long requestedOrigin;
+
+    public RenderSnapshot(int numRows, int numCols) {
+        this.lock = new StampedLock();
+        this.front = new Frame(numRows, numCols);
+        this.back = new Frame(numRows, numCols);
+    }
+
+    public void requestOrigin(int col, int row) {
+        this.requestedOrigin = ((long) row << 32) | (col & 0xffffffffL);
+    }
+
+    // simulation thread only, between ticks
+    public void capture(WorldModel world) {
+        long origin = this.requestedOrigin;
+        Frame frame = this.back;
+        frame.col = (int) origin;
+        frame.row = (int) (origin >>> 32);
+
+        // by grid index, so a capture allocates nothing
+        for (int row = 0; row < frame.numRows; row++) {
+            for (int col = 0; col < frame.numCols; col++) {
+                int cell = row * frame.numCols + col;
+                frame.backgrounds[cell] = world.getBackgroundSprite(
+                        frame.col + col, frame.row + row);
+                frame.occupants[cell] = world.getOccupantSprite(
+                        frame.col + col, frame.row + row);
+            }
+        }
+
+        // the front frame is only ever replaced by this thread
+        if (frame.sameAs(this.front)) {
+            return;
+        }
+        frame.version = this.front.version + 1;
+        long stamp = this.lock.writeLock();
+        try {
+            this.back = this.front;
+            this.front = frame;
+        } finally {
+            this.lock.unlockWrite(stamp);
+        }
+    }
+
+    // render thread; copies the latest frame into target, and says whether
+    // it differs from what target held
+    public boolean read(Frame target) {
+        long stamp = this.lock.tryOptimisticRead();
+        Frame frame = this.front;
+        if (frame.version == target.version && this.lock.validate(stamp)) {
+            return false;
+        }
+
+        target.copyFrom(frame);
+        if (!this.lock.validate(stamp)) {
+            stamp = this.lock.readLock();
+            try {
+                target.copyFrom(this.front);
+            } finally {
+                this.lock.unlockRead(stamp);
+            }
+        }
+        return true;
+    }
+
+    static final class Frame {
+        public final int numRows;
+        public final int numCols;
+        public int version;
+        public int col;
+        public int row;
+        // sprite ids by viewport cell, row-major; NO_SPRITE where there is
+        // no occupant, or no world
+        public final int[] backgrounds;
+        public final int[] occupants;
+
+        public Frame(int numRows, int numCols) {
+            this.numRows = numRows;
+            this.numCols = numCols;
+            this.version = -1;
+            this.backgrounds = new int[numRows * numCols];
+            this.occupants = new int[numRows * numCols];
+            Arrays.fill(this.backgrounds, ImageStore.NO_SPRITE);
+            Arrays.fill(this.occupants, ImageStore.NO_SPRITE);
+        }
+
+        private boolean sameAs(Frame other) {
+            return this.col == other.col && this.row == other.row &&
+                    Arrays.equals(this.backgrounds, other.backgrounds) &&
+                    Arrays.equals(this.occupants, other.occupants);
+        }
+
+        public void copyFrom(Frame other) {
+            this.version = other.version;
+            this.col = other.col;
+            this.row = other.row;
+            System.arraycopy(other.backgrounds, 0, this.backgrounds, 0,
+                    this.backgrounds.length);
+            System.arraycopy(other.occupants, 0, this.occupants, 0,
+                    this.occupants.length);
+        }
+    }
+}
@@ -0,0 +1,446 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import processing.core.PImage;
+
+/*
+   Loads a text save.  The file is mapped a window at a time, each window
+   is cut at line breaks into ranges, and the ranges are tokenized and
+   parsed in parallel on the common fork-join pool.  The parsed records are
+   then applied to the world in file order on the calling thread, so the
+   entities, the "position occupied" checks and the error messages come out
+   just as a line-by-line load would produce them.
+
+   Lines end at "\n", "\r\n" or a lone "\r", as with Scanner.nextLine.  A
+   line longer than a whole window is reported as invalid and skipped.
+
+   Like String.split("\\s"), tokens are separated by single whitespace
+   characters and trailing empty tokens are ignored.  The only strings made
+   are entity ids and each distinct background id.
+*/
+final class SaveFileLoader {
+    private static final String BGND_KEY = "background";
+    private static final int BGND_NUM_PROPERTIES = 4;
+    private static final int BGND_ID = 1;
+    private static final int BGND_COL = 2;
+    private static final int BGND_ROW = 3;
+
+    private static final int WINDOW_BYTES = 64 << 20;
+    private static final int MIN_RANGE_BYTES = 256 << 10;
+
+    // no record has more properties than this
+    private static final int MAX_TOKENS = 8;
+    private static final int MAX_INTS = 5;
+
+    // record types, which index the tables below
+    private static final byte INVALID = 0;
+    private static final byte BACKGROUND = 1;
+    private static final byte MINER = 2;
+    private static final byte OBSTACLE = 3;
+    private static final byte ORE = 4;
+    private static final byte SMITH = 5;
+    private static final byte VEIN = 6;
+
+    private static final byte[][] KEYS = {null, bytes(BGND_KEY),
+            bytes(Entity.MINER_KEY), bytes(Entity.OBSTACLE_KEY),
+            bytes(Entity.ORE_KEY), bytes(Entity.SMITH_KEY), bytes(Entity.VEIN_KEY)};
+    private static final int[] NUM_PROPERTIES = {0, BGND_NUM_PROPERTIES,
+            Entity.MINER_NUM_PROPERTIES, Entity.OBSTACLE_NUM_PROPERTIES,
+            Entity.ORE_NUM_PROPERTIES, Entity.SMITH_NUM_PROPERTIES,
+            Entity.VEIN_NUM_PROPERTIES};
+    private static final int[] ID_PROPERTY = {0, BGND_ID, Entity.MINER_ID,
+            Entity.OBSTACLE_ID, Entity.ORE_ID, Entity.SMITH_ID, Entity.VEIN_ID};
+    // the integer properties of each record, in the order they are stored
+    private static final int[][] INT_PROPERTIES = {{},
+            {BGND_COL, BGND_ROW},
+            {Entity.MINER_COL, Entity.MINER_ROW, Entity.MINER_LIMIT,
+                    Entity.MINER_ACTION_PERIOD, Entity.MINER_ANIMATION_PERIOD},
+            {Entity.OBSTACLE_COL, Entity.OBSTACLE_ROW},
+            {Entity.ORE_COL, Entity.ORE_ROW, Entity.ORE_ACTION_PERIOD},
+            {Entity.SMITH_COL, Entity.SMITH_ROW},
+            {Entity.VEIN_COL, Entity.VEIN_ROW, Entity.VEIN_ACTION_PERIOD}};
+
+    private final WorldModel world;
+    private final ImageStore imageStore;
+    private final Map<String, Background> backgrounds;
+    private int lineNumber;
+
+    private SaveFileLoader(WorldModel world, ImageStore imageStore) {
+        this.world = world;
+        this.imageStore = imageStore;
+        this.backgrounds = new HashMap<>();
+    }
+
+    public static void load(File file, WorldModel world, ImageStore imageStore)
+            throws IOException {
+        try (FileChannel channel = new RandomAccessFile(file, "r").getChannel()) {
+            new SaveFileLoader(world, imageStore).load(channel);
+        }
+    }
+
+    private void load(FileChannel channel) throws IOException {
+        long size = channel.size();
+        long position = 0;
+
+        while (position < size) {
+            int length = (int) Math.min(WINDOW_BYTES, size - position);
+            ByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY,
+                    position, length);
+
+            // leave a line cut off by the window for the next one
+            int end = length;
+            if (position + length < size) {
+                end = lastLineBreak(window, length) + 1;
+                if (end == 0) {
+                    System.err.println(String.format("invalid entry on line %d",
+                            this.lineNumber++));
+                    position = skipLine(channel, position + length, size);
+                    continue;
+                }
+            }
+
+            List<ParseRange> ranges = split(window, end);
+            for (ParseRange range : ranges) {
+                ForkJoinPool.commonPool().execute(range);
+            }
+            for (ParseRange range : ranges) {
+                apply(range.join());
+            }
+            position += end;
+        }
+    }
+
+    private static List<ParseRange> split(ByteBuffer window, int end) {
+        int pieces = Math.max(1, Math.min(end / MIN_RANGE_BYTES,
+                ForkJoinPool.getCommonPoolParallelism() * 4));
+        List<ParseRange> ranges = new ArrayList<>();
+        int start = 0;
+        for (int i = 1; i <= pieces && start < end; i++) {
+            int stop = i == pieces ? end :
+                    Math.max(start, nextLineStart(window, (int) ((long) end * i / pieces), end));
+            if (stop > start) {
+                ranges.add(new ParseRange(window, start, stop));
+                start = stop;
+            }
+        }
+        return ranges;
+    }
+
+    // a "\r" in the window's last byte may be the first half of a "\r\n"
+    private static int lastLineBreak(ByteBuffer window, int end) {
+        for (int i = end - 1; i >= 0; i--) {
+            byte b = window.get(i);
+            if (b == '\n' || b == '\r' && i < end - 1) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int nextLineStart(ByteBuffer window, int from, int end) {
+        for (int i = from; i < end; i++) {
+            if (isLineBreak(window.get(i))) {
+                return lineStartAfter(window, i, end);
+            }
+        }
+        return end;
+    }
+
+    private static boolean isLineBreak(byte b) {
+        return b == '\n' || b == '\r';
+    }
+
+    // where the line after the break at i starts
+    private static int lineStartAfter(ByteBuffer window, int i, int end) {
+        if (window.get(i) == '\r' && i + 1 < end && window.get(i + 1) == '\n') {
+            return i + 2;
+        }
+        return i + 1;
+    }
+
+    // the position just past the end of the line that runs on at position
+    private static long skipLine(FileChannel channel, long position, long size)
+            throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(MIN_RANGE_BYTES);
+        boolean carriageReturn = false;
+        while (position < size) {
+            buffer.clear();
+            int read = channel.read(buffer, position);
+            for (int i = 0; i < read; i++) {
+                byte b = buffer.get(i);
+                if (carriageReturn) {
+                    return b == '\n' ? position + i + 1 : position + i;
+                }
+                if (b == '\n') {
+                    return position + i + 1;
+                }
+                carriageReturn = b == '\r';
+            }
+            position += read;
+        }
+        return size;
+    }
+
+    private void apply(Records records) {
+        for (int i = 0; i < records.count; i++) {
+            int line = this.lineNumber + records.lines[i];
+            int[] values = records.values;
+            int base = i * MAX_INTS;
+            Point pt = new Point(values[base], values[base + 1]);
+            String id = records.ids[i];
+
+            Entity entity;
+            switch (records.types[i]) {
+                case BACKGROUND:
+                    this.world.setBackground(pt, background(id));
+                    continue;
+                case MINER:
+                    entity = Entity.createMinerNotFull(this.world.getStore(), id, values[base + 2],
+                            pt, values[base + 3], values[base + 4],
+                            images(Entity.MINER_KEY));
+                    break;
+                case OBSTACLE:
+                    entity = Entity.createObstacle(this.world.getStore(), id, pt,
+                            images(Entity.OBSTACLE_KEY));
+                    break;
+                case ORE:
+                    entity = Entity.createOre(this.world.getStore(), id, pt, values[base + 2],
+                            images(Entity.ORE_KEY));
+                    break;
+                case SMITH:
+                    entity = Entity.createBlacksmith(this.world.getStore(), id, pt,
+                            images(Entity.SMITH_KEY));
+                    break;
+                case VEIN:
+                    entity = Entity.createVein(this.world.getStore(), id, pt, values[base + 2],
+                            images(Entity.VEIN_KEY));
+                    break;
+                default:
+                    System.err.println(String.format("invalid entry on line %d",
+                            line));
+                    continue;
+            }
+
+            try {
+                this.world.tryAddEntity(entity);
+            } catch (IllegalArgumentException e) {
+                System.err.println(String.format("issue on line %d: %s",
+                        line, e.getMessage()));
+            }
+        }
+        this.lineNumber += records.lineCount;
+    }
+
+    private Background background(String id) {
+        Background background = this.backgrounds.get(id);
+        if (background == null) {
+            background = new Background(id, images(id));
+            this.backgrounds.put(id, background);
+        }
+        return background;
+    }
+
+    private List<PImage> images(String key) {
+        return this.imageStore.getImageList(key);
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    // parsed lines of one range, with line numbers relative to its start
+    private static final class Records {
+        private int count;
+        private int lineCount;
+        private byte[] types = new byte[64];
+        private int[] lines = new int[64];
+        private int[] values = new int[64 * MAX_INTS];
+        private String[] ids = new String[64];
+
+        private int add(byte type, int line) {
+            if (this.count == this.types.length) {
+                int capacity = this.count * 2;
+                this.types = Arrays.copyOf(this.types, capacity);
+                this.lines = Arrays.copyOf(this.lines, capacity);
+                this.values = Arrays.copyOf(this.values, capacity * MAX_INTS);
+                this.ids = Arrays.copyOf(this.ids, capacity);
+            }
+            this.types[this.count] = type;
+            this.lines[this.count] = line;
+            return this.count++;
+        }
+    }
+
+    private static final class ParseRange extends RecursiveTask<Records> {
+        private static final long serialVersionUID = 1L;
+
+        private final ByteBuffer window;
+        private final int start;
+        private final int end;
+
+        private final int[] tokenStarts = new int[MAX_TOKENS];
+        private final int[] tokenEnds = new int[MAX_TOKENS];
+        private final List<byte[]> knownIdBytes = new ArrayList<>();
+        private final List<String> knownIds = new ArrayList<>();
+
+        public ParseRange(ByteBuffer window, int start, int end) {
+            this.window = window;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected Records compute() {
+            Records records = new Records();
+            int lineStart = this.start;
+            while (lineStart < this.end) {
+                int lineEnd = lineStart;
+                while (lineEnd < this.end && !isLineBreak(this.window.get(lineEnd))) {
+                    lineEnd++;
+                }
+                parseLine(records, lineStart, lineEnd);
+                records.lineCount++;
+                lineStart = lineEnd < this.end ?
+                        lineStartAfter(this.window, lineEnd, this.end) : this.end;
+            }
+            return records;
+        }
+
+        private void parseLine(Records records, int lineStart, int lineEnd) {
+            int line = records.lineCount;
+            int tokens = tokenize(lineStart, lineEnd);
+            byte type = tokens > 0 ? matchKey() : INVALID;
+            if (type == INVALID || tokens != NUM_PROPERTIES[type]) {
+                records.add(INVALID, line);
+                return;
+            }
+
+            int index = records.add(type, line);
+            int[] properties = INT_PROPERTIES[type];
+            for (int i = 0; i < properties.length; i++) {
+                long value = parseInt(properties[i]);
+                if (value == Long.MIN_VALUE) {
+                    records.types[index] = INVALID;
+                    return;
+                }
+                records.values[index * MAX_INTS + i] = (int) value;
+            }
+            records.ids[index] = type == BACKGROUND ?
+                    sharedId(ID_PROPERTY[type]) : string(ID_PROPERTY[type]);
+        }
+
+        // token count once trailing empty tokens are dropped, or -1 for a
+        // line with more tokens than any record
+        private int tokenize(int lineStart, int lineEnd) {
+            int count = 0;
+            int token = 0;
+            int tokenStart = lineStart;
+            for (int i = lineStart; i <= lineEnd; i++) {
+                if (i == lineEnd || isWhitespace(this.window.get(i))) {
+                    if (i > tokenStart) {
+                        if (token >= MAX_TOKENS) {
+                            return -1;
+                        }
+                        count = token + 1;
+                    }
+                    if (token < MAX_TOKENS) {
+                        this.tokenStarts[token] = tokenStart;
+                        this.tokenEnds[token] = i;
+                    }
+                    token++;
+                    tokenStart = i + 1;
+                }
+            }
+            return count;
+        }
+
+        private byte matchKey() {
+            for (byte type = BACKGROUND; type < KEYS.length; type++) {
+                if (tokenEquals(Entity.PROPERTY_KEY, KEYS[type])) {
+                    return type;
+                }
+            }
+            return INVALID;
+        }
+
+        private boolean tokenEquals(int token, byte[] value) {
+            int start = this.tokenStarts[token];
+            if (this.tokenEnds[token] - start != value.length) {
+                return false;
+            }
+            for (int i = 0; i < value.length; i++) {
+                if (this.window.get(start + i) != value[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        // Integer.parseInt on a token, or Long.MIN_VALUE where it would throw
+        private long parseInt(int token) {
+            int i = this.tokenStarts[token];
+            int end = this.tokenEnds[token];
+            boolean negative = false;
+            if (i < end && (this.window.get(i) == '-' || this.window.get(i) == '+')) {
+                negative = this.window.get(i) == '-';
+                i++;
+            }
+            if (i == end) {
+                return Long.MIN_VALUE;
+            }
+
+            long value = 0;
+            for (; i < end; i++) {
+                int digit = this.window.get(i) - '0';
+                if (digit < 0 || digit > 9) {
+                    return Long.MIN_VALUE;
+                }
+                value = value * 10 + digit;
+                if (value > (long) Integer.MAX_VALUE + 1) {
+                    return Long.MIN_VALUE;
+                }
+            }
+            value = negative ? -value : value;
+            return value > Integer.MAX_VALUE ? Long.MIN_VALUE : value;
+        }
+
+        private String string(int token) {
+            int start = this.tokenStarts[token];
+            byte[] bytes = new byte[this.tokenEnds[token] - start];
+            for (int i = 0; i < bytes.length; i++) {
+                bytes[i] = this.window.get(start + i);
+            }
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        // background ids repeat on nearly every line, so reuse their strings
+        private String sharedId(int token) {
+            for (int i = 0; i < this.knownIdBytes.size(); i++) {
+                if (tokenEquals(token, this.knownIdBytes.get(i))) {
+                    return this.knownIds.get(i);
+                }
+            }
+
+            String id = string(token);
+            this.knownIdBytes.add(bytes(id));
+            this.knownIds.add(id);
+            return id;
+        }
+
+        private static boolean isWhitespace(byte b) {
+            return b == ' ' || b == '\t' || b == '\n' || b == 0x0b ||
+                    b == '\f' || b == '\r';
+        }
+    }
+}
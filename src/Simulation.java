@@ -0,0 +1,72 @@
+/*
+   Runs the scheduler on a thread of its own, so a burst of due events
+   never holds up a frame and a slow frame never holds up the world.  The
+   loop mirrors what the sketch's draw() used to do: with a wall clock it
+   fires due events every TIMER_ACTION_PERIOD, and with a logical clock it
+   advances one action period per loop.  After each pass it captures the
+   visible region into the RenderSnapshot, which is all the render thread
+   reads.  Once started, nothing else may touch the world or the scheduler.
+*/
+final class Simulation implements Runnable {
+    // how often the visible region is captured, about once per frame
+    private static final long CAPTURE_PERIOD_MILLIS = 16;
+
+    private final WorldModel world;
+    private final EventScheduler scheduler;
+    private final VirtualClock logicalClock;
+    private final Checkpointer checkpointer;
+    private final RenderSnapshot snapshot;
+    private final Thread thread;
+
+    // logicalClock and checkpointer may be null
+    public Simulation(WorldModel world, EventScheduler scheduler,
+                      VirtualClock logicalClock, Checkpointer checkpointer,
+                      RenderSnapshot snapshot) {
+        this.world = world;
+        this.scheduler = scheduler;
+        this.logicalClock = logicalClock;
+        this.checkpointer = checkpointer;
+        this.snapshot = snapshot;
+        this.thread = new Thread(this, "simulation");
+        this.thread.setDaemon(true);
+    }
+
+    public void start() {
+        this.thread.start();
+    }
+
+    @Override
+    public void run() {
+        long nextTime = System.currentTimeMillis() + VirtualWorld.TIMER_ACTION_PERIOD;
+        this.snapshot.capture(this.world);
+
+        while (true) {
+            long start = System.currentTimeMillis();
+            if (this.logicalClock != null) {
+                // one action period of simulation per pass, whatever the wall time
+                this.logicalClock.advance(VirtualWorld.TIMER_ACTION_PERIOD);
+                tick(this.logicalClock.currentTime());
+            } else if (start >= nextTime) {
+                tick(start);
+                nextTime = start + VirtualWorld.TIMER_ACTION_PERIOD;
+            }
+            this.snapshot.capture(this.world);
+
+            long wait = start + CAPTURE_PERIOD_MILLIS - System.currentTimeMillis();
+            if (wait > 0) {
+                try {
+                    Thread.sleep(wait);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private void tick(long time) {
+        this.scheduler.updateOnTime(time);
+        if (this.checkpointer != null) {
+            this.checkpointer.update(time);
+        }
+    }
+}
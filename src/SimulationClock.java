@@ -0,0 +1,6 @@
+interface SimulationClock {
+
+    // current simulation time in milliseconds
+    public long currentTime();
+
+}
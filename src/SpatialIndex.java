@@ -0,0 +1,180 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+
+/*
+   Uniform bucket grid per entity kind.  findNearest searches rings of
+   buckets outward from the query point and stops once no unvisited bucket
+   can hold anything closer.  Ties go to the entity that was added first,
+   which is the order WorldModel.entities iterates in.
+
+   Buckets are allocated a page of PAGE_SIZE x PAGE_SIZE at a time, the
+   first time an entity of the kind lands in it, so on a large world a kind
+   only costs memory around its entities.
+*/
+final class SpatialIndex {
+    public static final int BUCKET_SIZE = 8;
+    private static final int PAGE_BITS = 3;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+    private int bucketCols;
+    private int bucketRows;
+    private int pageCols;
+    private Map<String, ArrayList<Entry>[][]> kinds;
+    private Map<String, Integer> counts;
+    private long nextSeq;
+
+    public SpatialIndex(int numRows, int numCols) {
+        this.bucketCols = (numCols + BUCKET_SIZE - 1) / BUCKET_SIZE;
+        this.bucketRows = (numRows + BUCKET_SIZE - 1) / BUCKET_SIZE;
+        this.pageCols = (this.bucketCols + PAGE_MASK) >> PAGE_BITS;
+        this.kinds = new HashMap<>();
+        this.counts = new HashMap<>();
+    }
+
+    public void add(Entity entity) {
+        Entry entry = new Entry(entity, this.nextSeq++);
+        bucket(entity.getKind(), entity.getX(), entity.getY(), true).add(entry);
+        this.counts.merge(entity.getKind(), 1, Integer::sum);
+    }
+
+    public void remove(Entity entity) {
+        if (take(entity, entity.getX(), entity.getY()) != null) {
+            this.counts.merge(entity.getKind(), -1, Integer::sum);
+        }
+    }
+
+    // moves that stay within a bucket, most of them, touch nothing; the rest
+    // hold the kind's lock, so concurrent moves cannot lose an entry
+    public void move(Entity entity, Point from, Point to) {
+        if (bucketIndex(from) != bucketIndex(to)) {
+            ArrayList<Entry>[][] pages = this.kinds.get(entity.getKind());
+            if (pages == null) {
+                return;
+            }
+            synchronized (pages) {
+                Entry entry = take(entity, from.x, from.y);
+                if (entry != null) {
+                    bucket(entity.getKind(), to.x, to.y, true).add(entry);
+                }
+            }
+        }
+    }
+
+    public Optional<Entity> findNearest(Point pos, String kind) {
+        // on a big world an empty search would visit every bucket
+        ArrayList<Entry>[][] pages = this.kinds.get(kind);
+        if (pages == null || this.counts.get(kind) == 0) {
+            return Optional.empty();
+        }
+
+        int bx = Math.floorDiv(pos.x, BUCKET_SIZE);
+        int by = Math.floorDiv(pos.y, BUCKET_SIZE);
+        int maxRing = Math.max(
+                Math.max(Math.abs(bx), Math.abs(this.bucketCols - 1 - bx)),
+                Math.max(Math.abs(by), Math.abs(this.bucketRows - 1 - by)));
+
+        Entry nearest = null;
+        int nearestDistance = Integer.MAX_VALUE;
+
+        for (int ring = 0; ring <= maxRing; ring++) {
+            // anything in this ring is at least this far away
+            if (ring > 0) {
+                int gap = (ring - 1) * BUCKET_SIZE + 1;
+                if (gap * gap > nearestDistance) {
+                    break;
+                }
+            }
+
+            for (int y = by - ring; y <= by + ring; y++) {
+                boolean edgeRow = y == by - ring || y == by + ring;
+                int step = edgeRow ? 1 : 2 * ring;
+                for (int x = bx - ring; x <= bx + ring; x += step) {
+                    if (x < 0 || x >= this.bucketCols ||
+                            y < 0 || y >= this.bucketRows) {
+                        continue;
+                    }
+
+                    ArrayList<Entry> bucket = bucket(pages, x, y, false);
+                    if (bucket == null) {
+                        continue;
+                    }
+
+                    for (Entry entry : bucket) {
+                        int dx = entry.entity.getX() - pos.x;
+                        int dy = entry.entity.getY() - pos.y;
+                        int distance = dx * dx + dy * dy;
+                        if (distance < nearestDistance ||
+                                (distance == nearestDistance && entry.seq < nearest.seq)) {
+                            nearest = entry;
+                            nearestDistance = distance;
+                        }
+                    }
+                }
+            }
+        }
+
+        return nearest == null ? Optional.empty() : Optional.of(nearest.entity);
+    }
+
+    private Entry take(Entity entity, int x, int y) {
+        ArrayList<Entry> bucket = bucket(entity.getKind(), x, y, false);
+        if (bucket != null) {
+            for (int i = 0; i < bucket.size(); i++) {
+                if (bucket.get(i).entity == entity) {
+                    return bucket.remove(i);
+                }
+            }
+        }
+        return null;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private ArrayList<Entry> bucket(String kind, int x, int y, boolean create) {
+        ArrayList<Entry>[][] pages = this.kinds.get(kind);
+        if (pages == null) {
+            if (!create) {
+                return null;
+            }
+            int pageRows = (this.bucketRows + PAGE_MASK) >> PAGE_BITS;
+            pages = new ArrayList[this.pageCols * pageRows][];
+            this.kinds.put(kind, pages);
+        }
+        return bucket(pages, x / BUCKET_SIZE, y / BUCKET_SIZE, create);
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private ArrayList<Entry> bucket(ArrayList<Entry>[][] pages, int x, int y,
+                                    boolean create) {
+        int page = (y >> PAGE_BITS) * this.pageCols + (x >> PAGE_BITS);
+        if (pages[page] == null) {
+            if (!create) {
+                return null;
+            }
+            pages[page] = new ArrayList[PAGE_SIZE * PAGE_SIZE];
+        }
+
+        ArrayList<Entry>[] buckets = pages[page];
+        int index = (y & PAGE_MASK) << PAGE_BITS | (x & PAGE_MASK);
+        if (buckets[index] == null && create) {
+            buckets[index] = new ArrayList<>();
+        }
+        return buckets[index];
+    }
+
+    private int bucketIndex(Point pos) {
+        return (pos.y / BUCKET_SIZE) * this.bucketCols + pos.x / BUCKET_SIZE;
+    }
+
+    private static final class Entry {
+        private Entity entity;
+        private long seq;
+
+        public Entry(Entity entity, long seq) {
+            this.entity = entity;
+            this.seq = seq;
+        }
+    }
+}
@@ -0,0 +1,48 @@
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+import processing.core.PImage;
+
+/*
+   The frames loaded for one image key, as sprite ids into the store's
+   shared frame list.  Indexing is constant time, unlike the linked lists
+   the frames used to be kept in, and renderers can take the sprite id and
+   draw that frame's rectangle of the atlas instead of the frame itself.
+*/
+final class SpriteSequence extends AbstractList<PImage> implements RandomAccess {
+    private final List<PImage> frames;
+    private int[] sprites;
+    private int size;
+
+    public SpriteSequence(List<PImage> frames) {
+        this.frames = frames;
+        this.sprites = new int[4];
+    }
+
+    public int getSprite(int index) {
+        if (index < 0 || index >= this.size) {
+            throw new IndexOutOfBoundsException(
+                    String.format("index %d, size %d", index, this.size));
+        }
+        return this.sprites[index];
+    }
+
+    public void addSprite(int sprite) {
+        if (this.size == this.sprites.length) {
+            this.sprites = Arrays.copyOf(this.sprites, this.size * 2);
+        }
+        this.sprites[this.size++] = sprite;
+    }
+
+    @Override
+    public PImage get(int index) {
+        return this.frames.get(getSprite(index));
+    }
+
+    @Override
+    public int size() {
+        return this.size;
+    }
+}
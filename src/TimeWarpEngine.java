@@ -0,0 +1,514 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Consumer;
+
+/*
+   Optimistic (Time Warp) execution of a scheduler's events on the common
+   fork-join pool, for headless runs on a logical clock.  The world is cut
+   into bands of whole rows, each owned by a logical process with its own
+   pending events, its own virtual time and a log of what it has run.
+
+   Events fire on the same ticks the tick-driven scheduler fires them on,
+   every tickMillis from the clock's time when the engine takes over, and
+   are ordered by (tick, time, entity slot, action); a zero delay fires a
+   tick later.  The outcome is that of firing the events one at a time in
+   that order, however many processes there are.
+
+   A process runs its events ahead of the others, up to WINDOW_TICKS past
+   global virtual time (GVT, the earliest event pending anywhere), as long
+   as they are local (Action.isLocal) and everything within
+   RegionTicker.REACH of their entity lies in its band.  Before running
+   one it saves the entity's position, frame and idle stamp, which is
+   everything a local action changes besides what it schedules.  It stops
+   at the first event it cannot run.
+
+   Once every process has stopped, the event at GVT is run on its own.
+   Its owner, and any process that has run something near it since, are
+   rolled back first: the log is undone newest first, which restores the
+   saved state, withdraws the events those runs scheduled and puts the
+   runs back on the queue.  If it changed a flow field, the processes
+   whose bands hold a changed cell are rolled back too, since their runs
+   may have read it; a local run reads the fields only around its entity
+   and never searches the spatial index, so a change elsewhere cannot
+   have reached it.  Undoing a run afterwards is still exact, as it only
+   moves its own entity back within its band.  What the event schedules
+   goes to the process owning the entity's band, which rolls back again
+   if it has run past it, as for any straggler.  Log entries from before
+   GVT can never be undone and are dropped.
+*/
+final class TimeWarpEngine {
+    // how far past GVT a process may run
+    private static final int WINDOW_TICKS = 2;
+    // band heights are a multiple of this, so no two processes ever share
+    // a spatial index bucket
+    private static final int BAND_ALIGN = 16;
+
+    private final WorldModel world;
+    private final long tickMillis;
+    private final long origin;
+    private final int bandRows;
+    private final Process[] processes;
+    // each band's field version, from before the event at GVT ran
+    private final int[] fieldVersions;
+
+    // runs the events at GVT, scheduling into the owning processes
+    private final EventClock globalClock;
+    private final EventScheduler globalScheduler;
+
+    // statistics, for the caller to report
+    private long committed;
+    private long rolledBack;
+
+    // takes every pending event over from the scheduler
+    public TimeWarpEngine(WorldModel world, EventScheduler scheduler,
+                          int processCount, long tickMillis) {
+        this.world = world;
+        this.tickMillis = tickMillis;
+        this.origin = scheduler.getClock().currentTime();
+
+        int rows = (world.numRows + processCount - 1) / processCount;
+        this.bandRows = Math.max(BAND_ALIGN,
+                (rows + BAND_ALIGN - 1) / BAND_ALIGN * BAND_ALIGN);
+        this.processes = new Process[(world.numRows + this.bandRows - 1) / this.bandRows];
+        for (int i = 0; i < this.processes.length; i++) {
+            this.processes[i] = new Process(scheduler, i * this.bandRows,
+                    Math.min((i + 1) * this.bandRows, world.numRows));
+        }
+        this.fieldVersions = new int[this.processes.length];
+
+        this.globalClock = new EventClock(this.origin);
+        this.globalScheduler = new EventScheduler(scheduler, new Router(),
+                this.globalClock);
+
+        Event event;
+        while ((event = scheduler.pollDue(Long.MAX_VALUE)) != null) {
+            if (event.generation == event.entity.getGeneration()) {
+                owner(event.entity).receive(event,
+                        firingTick(event.time, this.origin));
+            }
+        }
+    }
+
+    public int getProcessCount() {
+        return this.processes.length;
+    }
+
+    public long getCommitted() {
+        return this.committed;
+    }
+
+    public long getRolledBack() {
+        return this.rolledBack;
+    }
+
+    // visits every pending event that will still fire, in no particular order
+    public void forEachPendingEvent(Consumer<Event> consumer) {
+        for (Process process : this.processes) {
+            process.forEach(event -> {
+                if (event.generation == event.entity.getGeneration()) {
+                    consumer.accept(event);
+                }
+            });
+        }
+    }
+
+    // fires every event due by the given time
+    public void advanceTo(long time) {
+        while (true) {
+            Process first = null;
+            Entry gvt = null;
+            for (Process process : this.processes) {
+                if (!process.pending.isEmpty() &&
+                        (gvt == null || compare(process.pending.first(), gvt) < 0)) {
+                    first = process;
+                    gvt = process.pending.first();
+                }
+            }
+            if (gvt == null || gvt.tick > time) {
+                break;
+            }
+
+            collectFossils(gvt);
+            if (first.blocked == gvt) {
+                runAtGvt(first, gvt);
+            } else {
+                runAhead(Math.min(time, gvt.tick + WINDOW_TICKS * this.tickMillis));
+            }
+        }
+
+        // nothing ran past the window, so everything that ran is final
+        collectFossils(null);
+        this.globalClock.time = time;
+    }
+
+    private void runAhead(long windowEnd) {
+        List<RunAhead> tasks = new ArrayList<>();
+        for (Process process : this.processes) {
+            if (!process.pending.isEmpty() &&
+                    process.pending.first().tick <= windowEnd) {
+                tasks.add(new RunAhead(process, windowEnd));
+            }
+        }
+
+        if (tasks.size() == 1) {
+            tasks.get(0).compute();
+        } else {
+            ForkJoinTask.invokeAll(tasks);
+        }
+    }
+
+    private void runAtGvt(Process owner, Entry entry) {
+        owner.pending.remove(entry);
+        Event event = entry.event;
+        Entity entity = event.entity;
+        if (event.generation != entity.getGeneration()) {
+            return;
+        }
+
+        int x = entity.getX();
+        int y = entity.getY();
+        for (Process process : this.processes) {
+            if (process == owner) {
+                process.rollback(entry);
+            } else if (process.overlaps(y)) {
+                process.rollbackNear(entry, x, y);
+            }
+        }
+
+        for (int i = 0; i < this.processes.length; i++) {
+            this.fieldVersions[i] = this.processes[i].getFieldVersion();
+        }
+        this.globalClock.time = entry.tick;
+        event.action.executeAction(this.globalScheduler);
+        this.committed++;
+
+        // undoing these never touches the flow fields
+        for (int i = 0; i < this.processes.length; i++) {
+            if (this.processes[i].getFieldVersion() != this.fieldVersions[i]) {
+                this.processes[i].rollback(entry);
+            }
+        }
+
+        // an entity that moved bands takes the rest of its events along
+        Process now = owner(entity);
+        if (event.generation == entity.getGeneration() && now != owner) {
+            Iterator<Entry> pending = owner.pending.iterator();
+            while (pending.hasNext()) {
+                Entry other = pending.next();
+                if (other.event.entity == entity) {
+                    pending.remove();
+                    now.receive(other.event, other.tick);
+                }
+            }
+        }
+    }
+
+    // drops log entries before gvt, or all of them
+    private void collectFossils(Entry gvt) {
+        for (Process process : this.processes) {
+            while (!process.log.isEmpty() &&
+                    (gvt == null || compare(process.log.peekFirst().entry, gvt) < 0)) {
+                process.log.pollFirst();
+                this.committed++;
+            }
+        }
+    }
+
+    private Process owner(Entity entity) {
+        int row = entity.getY();
+        if (row < 0 || row >= this.world.numRows) {
+            return this.processes[0];
+        }
+        return this.processes[row / this.bandRows];
+    }
+
+    private long firingTick(long time, long now) {
+        long tick = time <= this.origin ? this.origin + this.tickMillis :
+                this.origin + Math.floorDiv(time - this.origin + this.tickMillis - 1,
+                        this.tickMillis) * this.tickMillis;
+        return tick <= now ? now + this.tickMillis : tick;
+    }
+
+    private static int compare(Entry a, Entry b) {
+        if (a.tick != b.tick) {
+            return Long.compare(a.tick, b.tick);
+        } else if (a.time != b.time) {
+            return Long.compare(a.time, b.time);
+        } else if (a.slot != b.slot) {
+            return Integer.compare(a.slot, b.slot);
+        } else if (a.order != b.order) {
+            return Integer.compare(a.order, b.order);
+        }
+        return Long.compare(a.id, b.id);
+    }
+
+    private final class Process implements EventQueue {
+        private final int firstRow;
+        private final int endRow;
+        private final TreeSet<Entry> pending;
+        private final ArrayDeque<Saved> log;
+        private final EventClock clock;
+        private final EventScheduler scheduler;
+        private long nextId;
+
+        // the run whose action is scheduling, if any
+        private Saved current;
+        // the event the last run ahead stopped at
+        private Entry blocked;
+
+        public Process(EventScheduler parent, int firstRow, int endRow) {
+            this.firstRow = firstRow;
+            this.endRow = endRow;
+            this.pending = new TreeSet<>(TimeWarpEngine::compare);
+            this.log = new ArrayDeque<>();
+            this.clock = new EventClock(TimeWarpEngine.this.origin);
+            this.scheduler = new EventScheduler(parent, this, this.clock);
+        }
+
+        public void runAhead(long windowEnd) {
+            this.blocked = null;
+            while (!this.pending.isEmpty()) {
+                Entry head = this.pending.first();
+                if (head.tick > windowEnd) {
+                    return;
+                }
+
+                // a dead event stays dead whatever is rolled back
+                Event event = head.event;
+                if (event.generation != event.entity.getGeneration()) {
+                    this.pending.pollFirst();
+                    continue;
+                }
+                if (!owns(event.entity.getY()) || !event.action.isLocal()) {
+                    this.blocked = head;
+                    return;
+                }
+
+                this.pending.pollFirst();
+                this.current = new Saved(head);
+                this.log.addLast(this.current);
+                this.clock.time = head.tick;
+                event.action.executeAction(this.scheduler);
+                this.current.ran();
+                this.current = null;
+            }
+        }
+
+        // undoes every run ordered after the given event
+        public void rollback(Entry to) {
+            while (!this.log.isEmpty() && compare(this.log.peekLast().entry, to) > 0) {
+                Saved saved = this.log.pollLast();
+                for (Entry child : saved.children) {
+                    this.pending.remove(child);
+                }
+                saved.restore(TimeWarpEngine.this.world);
+                this.pending.add(saved.entry);
+                TimeWarpEngine.this.rolledBack++;
+            }
+        }
+
+        /*
+           Undoes every run ordered after the given event, as long as one of
+           them came near (x, y).  Runs that stayed clear of it neither read
+           nor wrote anything the event there does, so they come out the
+           same whichever goes first.
+        */
+        public void rollbackNear(Entry to, int x, int y) {
+            Iterator<Saved> runs = this.log.descendingIterator();
+            while (runs.hasNext()) {
+                Saved saved = runs.next();
+                if (compare(saved.entry, to) <= 0) {
+                    return;
+                }
+                if (saved.isNear(x, y)) {
+                    rollback(to);
+                    return;
+                }
+            }
+        }
+
+        // an event from outside, which rolls back anything run after it
+        public void receive(Event event, long tick) {
+            Entry entry = new Entry(event, tick, this.nextId++);
+            rollback(entry);
+            this.pending.add(entry);
+        }
+
+        // changes whenever a flow field cell in this band does
+        public int getFieldVersion() {
+            return TimeWarpEngine.this.world.getFieldVersion(this.firstRow, this.endRow);
+        }
+
+        // whether every cell within reach of row y is in this band
+        private boolean owns(int y) {
+            return (y - RegionTicker.REACH >= this.firstRow || this.firstRow == 0) &&
+                    (y + RegionTicker.REACH < this.endRow ||
+                            this.endRow == TimeWarpEngine.this.world.numRows) &&
+                    y >= this.firstRow && y < this.endRow;
+        }
+
+        // whether any cell within reach of row y is in this band
+        public boolean overlaps(int y) {
+            return y + RegionTicker.REACH >= this.firstRow &&
+                    y - RegionTicker.REACH < this.endRow;
+        }
+
+        // this process's own scheduler adds here while an event runs
+        public void add(Event event) {
+            Entry entry = new Entry(event, firingTick(event.time, this.clock.time),
+                    this.nextId++);
+            this.pending.add(entry);
+            this.current.children.add(entry);
+        }
+
+        public Event pollDue(long time) {
+            return null;
+        }
+
+        public boolean isEmpty() {
+            return this.pending.isEmpty();
+        }
+
+        public void forEach(Consumer<Event> consumer) {
+            for (Entry entry : this.pending) {
+                consumer.accept(entry.event);
+            }
+        }
+    }
+
+    // where the events run at GVT schedule to
+    private final class Router implements EventQueue {
+        public void add(Event event) {
+            owner(event.entity).receive(event, firingTick(event.time,
+                    TimeWarpEngine.this.globalClock.time));
+        }
+
+        public Event pollDue(long time) {
+            return null;
+        }
+
+        public boolean isEmpty() {
+            return true;
+        }
+
+        public void forEach(Consumer<Event> consumer) {
+        }
+    }
+
+    private static final class RunAhead extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Process process;
+        private final long windowEnd;
+
+        public RunAhead(Process process, long windowEnd) {
+            this.process = process;
+            this.windowEnd = windowEnd;
+        }
+
+        @Override
+        protected void compute() {
+            this.process.runAhead(this.windowEnd);
+        }
+    }
+
+    private static final class Entry {
+        private final Event event;
+        private final long tick;
+        private final long time;
+        private final int slot;
+        // activities before animation frames of the same entity
+        private final int order;
+        // only tells apart events that are otherwise the same
+        private final long id;
+
+        public Entry(Event event, long tick, long id) {
+            this.event = event;
+            this.tick = tick;
+            this.time = event.time;
+            this.slot = event.entity.getSlot();
+            this.order = event.action instanceof AnimationAction ? 1 : 0;
+            this.id = id;
+        }
+    }
+
+    // the state a local action may change, saved before it runs
+    private static final class Saved {
+        private final Entry entry;
+        private final int x;
+        private final int y;
+        private final int imageIndex;
+        private final long idleStamp;
+        private final int repeatCount;
+        private final List<Entry> children;
+        // where the entity ended up
+        private int toX;
+        private int toY;
+
+        public Saved(Entry entry) {
+            this.entry = entry;
+            EntityStore store = entry.event.entity.getStore();
+            int slot = entry.event.entity.getSlot();
+            this.x = store.getX(slot);
+            this.y = store.getY(slot);
+            this.imageIndex = store.getImageIndex(slot);
+            this.idleStamp = store.getIdleStamp(slot);
+            this.repeatCount = entry.event.action instanceof AnimationAction ?
+                    ((AnimationAction) entry.event.action).getRepeatCount() : 0;
+            this.children = new ArrayList<>(1);
+        }
+
+        public void ran() {
+            this.toX = this.entry.event.entity.getX();
+            this.toY = this.entry.event.entity.getY();
+        }
+
+        /*
+           Whether this run and an event at (x, y) could have touched the
+           same cell, as both only touch cells within reach of their
+           entity.  An idle stamp counts freed cells per spatial index
+           bucket, wider than that, but it only decides whether a look
+           around is skipped, never what the look finds.
+        */
+        public boolean isNear(int x, int y) {
+            return isNear(y, this.y, this.toY) && isNear(x, this.x, this.toX);
+        }
+
+        private static boolean isNear(int at, int from, int to) {
+            int reach = 2 * RegionTicker.REACH;
+            return at + reach >= Math.min(from, to) && at - reach <= Math.max(from, to);
+        }
+
+        public void restore(WorldModel world) {
+            Entity entity = this.entry.event.entity;
+            EntityStore store = world.getStore();
+            int slot = entity.getSlot();
+            if (store.getX(slot) != this.x || store.getY(slot) != this.y) {
+                world.moveEntity(entity, new Point(this.x, this.y));
+            }
+            store.setImageIndex(slot, this.imageIndex);
+            store.setIdleStamp(slot, this.idleStamp);
+            if (this.entry.event.action instanceof AnimationAction) {
+                ((AnimationAction) this.entry.event.action).setRepeatCount(this.repeatCount);
+            }
+        }
+    }
+
+    private static final class EventClock implements SimulationClock {
+        private long time;
+
+        public EventClock(long time) {
+            this.time = time;
+        }
+
+        @Override
+        public long currentTime() {
+            return this.time;
+        }
+    }
+}
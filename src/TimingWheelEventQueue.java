@@ -0,0 +1,214 @@
+import java.util.function.Consumer;
+
+/*
+   Hierarchical timing wheel.  Level 0 has one bucket per tick; each higher
+   level has one bucket per full revolution of the level below it.  An event
+   is filed on the lowest level whose buckets still separate it from the
+   current tick, and is cascaded down a level every time the wheel below
+   wraps around.  Events further out than the top level wait in an overflow
+   list until the top level wraps.
+
+   Until the first poll the wheel has no current tick, so events are held
+   in a start-up list and filed once the first poll fixes the starting point.
+
+   Events that share a tick are returned in the order they were added.
+*/
+final class TimingWheelEventQueue implements EventQueue {
+    private static final int WHEEL_BITS = 8;
+    private static final int WHEEL_SIZE = 1 << WHEEL_BITS;
+    private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+    private static final int LEVELS = 4;
+
+    private static final int OVERFLOW_BUCKET = LEVELS * WHEEL_SIZE;
+    private static final int STARTUP_BUCKET = OVERFLOW_BUCKET + 1;
+    private static final int NO_BUCKET = -1;
+
+    private final long tickMillis;
+    private final Event[] heads;
+    private final Event[] tails;
+    private final int[] levelCounts;
+
+    private long currentTick;
+    private boolean started;
+    private int size;
+
+    public TimingWheelEventQueue(long tickMillis) {
+        if (tickMillis <= 0) {
+            throw new IllegalArgumentException("tick must be positive");
+        }
+        this.tickMillis = tickMillis;
+        this.heads = new Event[STARTUP_BUCKET + 1];
+        this.tails = new Event[STARTUP_BUCKET + 1];
+        this.levelCounts = new int[LEVELS + 1];
+    }
+
+    @Override
+    public void add(Event event) {
+        if (this.started) {
+            file(event, Math.max(Math.floorDiv(event.time, this.tickMillis),
+                    this.currentTick));
+        } else {
+            append(event, STARTUP_BUCKET);
+        }
+        this.size++;
+    }
+
+    @Override
+    public Event pollDue(long time) {
+        long limit = Math.floorDiv(time - 1, this.tickMillis);
+        if (!this.started) {
+            start(limit);
+        }
+        if (this.size == 0) {
+            // every tick up to the limit has now been checked
+            this.currentTick = Math.max(this.currentTick, limit);
+            return null;
+        }
+
+        while (this.currentTick <= limit) {
+            int bucket = (int) (this.currentTick & WHEEL_MASK);
+            Event event = firstDue(bucket, time);
+            if (event != null) {
+                unlink(event);
+                this.size--;
+                return event;
+            }
+
+            // the last bucket may only be partly due when ticks are coarse
+            if (this.currentTick == limit) {
+                return null;
+            }
+
+            if (this.levelCounts[0] == 0) {
+                // nothing left on level 0, so skip to the next cascade
+                long nextRevolution = (this.currentTick | WHEEL_MASK) + 1;
+                if (nextRevolution > limit) {
+                    this.currentTick = limit;
+                    continue;
+                }
+                this.currentTick = nextRevolution - 1;
+            }
+            advance();
+        }
+
+        return null;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    @Override
+    public void forEach(Consumer<Event> consumer) {
+        for (Event head : this.heads) {
+            for (Event event = head; event != null; event = event.next) {
+                consumer.accept(event);
+            }
+        }
+    }
+
+    private void start(long limit) {
+        // begin at the earliest pending tick, but never later than the first
+        // tick that has not been polled yet
+        long first = limit + 1;
+        for (Event event = this.heads[STARTUP_BUCKET]; event != null; event = event.next) {
+            first = Math.min(first, Math.floorDiv(event.time, this.tickMillis));
+        }
+        this.currentTick = first;
+        this.started = true;
+        cascade(STARTUP_BUCKET);
+    }
+
+    private Event firstDue(int bucket, long time) {
+        for (Event event = this.heads[bucket]; event != null; event = event.next) {
+            if (event.time < time) {
+                return event;
+            }
+        }
+        return null;
+    }
+
+    private void advance() {
+        this.currentTick++;
+
+        // cascade from the highest level whose wheel just wrapped
+        int wrapped = 0;
+        while (wrapped < LEVELS - 1 &&
+                (this.currentTick & ((1L << (WHEEL_BITS * (wrapped + 1))) - 1)) == 0) {
+            wrapped++;
+        }
+        if (wrapped == LEVELS - 1 &&
+                (this.currentTick & ((1L << (WHEEL_BITS * LEVELS)) - 1)) == 0) {
+            cascade(OVERFLOW_BUCKET);
+        }
+        for (int level = wrapped; level > 0; level--) {
+            int slot = (int) ((this.currentTick >> (WHEEL_BITS * level)) & WHEEL_MASK);
+            cascade(level * WHEEL_SIZE + slot);
+        }
+    }
+
+    private void cascade(int bucket) {
+        Event event = this.heads[bucket];
+        this.heads[bucket] = null;
+        this.tails[bucket] = null;
+
+        while (event != null) {
+            Event next = event.next;
+            this.levelCounts[levelOf(bucket)]--;
+            file(event, Math.max(Math.floorDiv(event.time, this.tickMillis),
+                    this.currentTick));
+            event = next;
+        }
+    }
+
+    private void file(Event event, long tick) {
+        long diff = tick ^ this.currentTick;
+        int bucket = OVERFLOW_BUCKET;
+        for (int level = 0; level < LEVELS; level++) {
+            if (diff >>> (WHEEL_BITS * (level + 1)) == 0) {
+                bucket = level * WHEEL_SIZE +
+                        (int) ((tick >> (WHEEL_BITS * level)) & WHEEL_MASK);
+                break;
+            }
+        }
+
+        append(event, bucket);
+    }
+
+    private void append(Event event, int bucket) {
+        event.bucket = bucket;
+        event.next = null;
+        event.prev = this.tails[bucket];
+        if (this.tails[bucket] == null) {
+            this.heads[bucket] = event;
+        } else {
+            this.tails[bucket].next = event;
+        }
+        this.tails[bucket] = event;
+        this.levelCounts[levelOf(bucket)]++;
+    }
+
+    private void unlink(Event event) {
+        int bucket = event.bucket;
+        if (event.prev == null) {
+            this.heads[bucket] = event.next;
+        } else {
+            event.prev.next = event.next;
+        }
+        if (event.next == null) {
+            this.tails[bucket] = event.prev;
+        } else {
+            event.next.prev = event.prev;
+        }
+        this.levelCounts[levelOf(bucket)]--;
+
+        event.bucket = NO_BUCKET;
+        event.prev = null;
+        event.next = null;
+    }
+
+    private static int levelOf(int bucket) {
+        return bucket / WHEEL_SIZE;
+    }
+}
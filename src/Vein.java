@@ -3,86 +3,48 @@ import processing.core.PImage;
 import java.util.List;
 import java.util.Optional;
 
-public class Vein implements Entity, Active {
-    public String kind;
-    public Point position;
-    public List<PImage> images;
-    public int imageIndex;
-    public int actionPeriod;
+public class Vein extends EntityView implements Active {
 
-    private String id;
-    private int resourceLimit;
-    private int resourceCount;
-    private int animationPeriod;
-
-    public Vein(String id, Point position,
+    public Vein(EntityStore store, String id, Point position,
                   List<PImage> images, int resourceLimit, int resourceCount,
                   int actionPeriod, int animationPeriod) {
-        this.kind = "VEIN";
-        this.id = id;
-        this.position = position;
-        this.images = images;
-        this.imageIndex = 0;
-        this.resourceLimit = resourceLimit;
-        this.resourceCount = resourceCount;
-        this.actionPeriod = actionPeriod;
-        this.animationPeriod = animationPeriod;
-    }
-
-    public void nextImage() {
-        this.imageIndex = (this.imageIndex + 1) % this.images.size();
+        super(store, VEIN_KIND, id, position, images, resourceLimit,
+                resourceCount, actionPeriod, animationPeriod);
     }
 
     public void executeVeinActivity(WorldModel world,
                                     ImageStore imageStore, EventScheduler scheduler) {
-        Optional<Point> openPt = world.findOpenAround(this.position);
+        // nothing around the vein has been freed since it was last full
+        long stamp = world.getFreedVersion(getX(), getY());
+        Optional<Point> openPt = isStillIdle(stamp) ?
+                Optional.empty() : world.findOpenAround(getPosition());
+        setIdleStamp(openPt.isPresent() ? EntityStore.NOT_IDLE : stamp);
 
         if (openPt.isPresent()) {
-            Entity ore = Entity.createOre(ORE_ID_PREFIX + this.id,
-                    openPt.get(), ORE_CORRUPT_MIN +
-                            rand.nextInt(ORE_CORRUPT_MAX - ORE_CORRUPT_MIN),
-                    imageStore.getImageList(ORE_KEY));
-            world.addEntity(ore);
-            scheduler.scheduleActions(ore, world, imageStore);
+            int corruptPeriod = ORE_CORRUPT_MIN +
+                    rand.nextInt(ORE_CORRUPT_MAX - ORE_CORRUPT_MIN);
+
+            // a cell taken since it was found sends the ore on to the next
+            // open one, until there is none left
+            do {
+                Entity ore = Entity.createOre(world.getStore(), ORE_ID_PREFIX + getId(),
+                        openPt.get(), corruptPeriod,
+                        imageStore.getImageList(ORE_KEY));
+                if (world.addEntity(ore)) {
+                    scheduler.scheduleActions(ore, world, imageStore);
+                    break;
+                }
+                openPt = world.findOpenAround(getPosition());
+            } while (openPt.isPresent());
         }
 
         scheduler.scheduleEvent(this,
-                Entity.createActivityAction(world, imageStore, this),
-                this.actionPeriod);
-    }
-
-    @Override
-    public Point getPosition() {
-        return this.position;
-    }
-
-    @Override
-    public void setPosition(Point point) {
-        this.position = point;
-    }
-
-    @Override
-    public String getKind() {
-        return this.kind;
-    }
-
-    @Override
-    public int getActionPeriod() {
-        return this.actionPeriod;
+                getActivityAction(world, imageStore),
+                getActionPeriod());
     }
 
     @Override
     public void executeActivity(WorldModel world, ImageStore imageStore, EventScheduler scheduler) {
         executeVeinActivity(world, imageStore, scheduler);
     }
-
-    @Override
-    public List<PImage> getImages(){
-        return this.images;
-    }
-
-    @Override
-    public int getImageIndex(){
-        return this.imageIndex;
-    }
 }
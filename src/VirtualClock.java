@@ -0,0 +1,20 @@
+/*
+   Logical clock that only moves when told to, so the simulation runs at
+   whatever speed the caller drives it rather than at wall-clock speed.
+*/
+final class VirtualClock implements SimulationClock {
+    private long time;
+
+    public VirtualClock(long startTime) {
+        this.time = startTime;
+    }
+
+    @Override
+    public long currentTime() {
+        return this.time;
+    }
+
+    public void advance(long millis) {
+        this.time += millis;
+    }
+}
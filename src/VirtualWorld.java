@@ -1,30 +1,32 @@
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.util.Scanner;
 import processing.core.*;
 
 public final class VirtualWorld
    extends PApplet
 {
-   private static final int TIMER_ACTION_PERIOD = 100;
+   static final int TIMER_ACTION_PERIOD = 100;
 
    private static final int VIEW_WIDTH = 640;
    private static final int VIEW_HEIGHT = 480;
-   private static final int TILE_WIDTH = 32;
-   private static final int TILE_HEIGHT = 32;
+   static final int TILE_WIDTH = 32;
+   static final int TILE_HEIGHT = 32;
    private static final int WORLD_WIDTH_SCALE = 2;
    private static final int WORLD_HEIGHT_SCALE = 2;
 
    private static final int VIEW_COLS = VIEW_WIDTH / TILE_WIDTH;
    private static final int VIEW_ROWS = VIEW_HEIGHT / TILE_HEIGHT;
-   private static final int WORLD_COLS = VIEW_COLS * WORLD_WIDTH_SCALE;
-   private static final int WORLD_ROWS = VIEW_ROWS * WORLD_HEIGHT_SCALE;
+   static final int WORLD_COLS = VIEW_COLS * WORLD_WIDTH_SCALE;
+   static final int WORLD_ROWS = VIEW_ROWS * WORLD_HEIGHT_SCALE;
 
    private static final String IMAGE_LIST_FILE_NAME = "imagelist";
+   private static final String IMAGE_CACHE_FILE_NAME = "imagecache.bin";
    private static final String DEFAULT_IMAGE_NAME = "background_default";
    private static final int DEFAULT_IMAGE_COLOR = 0x808080;
 
-   private static final String LOAD_FILE_NAME = "gaia.sav";
+   static final String LOAD_FILE_NAME = "gaia.sav";
 
    private static final String FAST_FLAG = "-fast";
    private static final String FASTER_FLAG = "-faster";
@@ -32,15 +34,41 @@ public final class VirtualWorld
    private static final double FAST_SCALE = 0.5;
    private static final double FASTER_SCALE = 0.25;
    private static final double FASTEST_SCALE = 0.10;
+   static final String HEAP_FLAG = "-heap";
+   private static final String LOGICAL_FLAG = "-logical";
+   private static final String EVENT_ANIMATION_FLAG = "-eventanim";
+   static final String OFF_HEAP_FLAG = "-offheap";
+   static final String CHUNKED_FLAG = "-chunked";
+   // fire local events of far-apart regions concurrently
+   static final String PARALLEL_FLAG = "-parallel";
+   // give each region of the world an actor, see RegionActors
+   static final String ACTORS_FLAG = "-actors";
+   // -checkpoint=SECONDS, of simulation clock time
+   static final String CHECKPOINT_FLAG = "-checkpoint=";
+   static final String CHECKPOINT_FILE_NAME = "checkpoint" + WorldSnapshot.SUFFIX;
+   // -world=COLSxROWS, e.g. -world=10000x10000
+   private static final String WORLD_SIZE_FLAG = "-world=";
+
+   // resolution of the timing wheel behind the scheduler; one level-0
+   // revolution (256 ticks) covers a whole TIMER_ACTION_PERIOD
+   private static final long WHEEL_TICK_MILLIS = 1;
 
    private static double timeScale = 1.0 / 10;
+   private static boolean heapQueue = false;
+   private static boolean logicalClock = false;
+   private static boolean clockAnimation = true;
+   private static boolean chunkedWorld = false;
+   private static boolean parallelTicks = false;
+   private static boolean regionActors = false;
+   private static double checkpointSeconds = 0;
+   private static String loadFileName = LOAD_FILE_NAME;
+   static int worldCols = WORLD_COLS;
+   static int worldRows = WORLD_ROWS;
+   // entity columns in direct buffers for every world loaded
+   static boolean offHeapEntities = false;
 
    private ImageStore imageStore;
-   private WorldModel world;
    private WorldView view;
-   private EventScheduler scheduler;
-
-   private long next_time;
 
    public void settings()
    {
@@ -48,35 +76,56 @@ public final class VirtualWorld
    }
 
    /*
-      Processing entry point for "sketch" setup.
+      Processing entry point for "sketch" setup.  The world and scheduler
+      are handed to a Simulation thread; the sketch only draws what it
+      publishes.
    */
    public void setup()
    {
       this.imageStore = new ImageStore(
          createImageColored(TILE_WIDTH, TILE_HEIGHT, DEFAULT_IMAGE_COLOR));
-      this.world = new WorldModel(WORLD_ROWS, WORLD_COLS,
-         createDefaultBackground(imageStore));
-      this.view = new WorldView(VIEW_ROWS, VIEW_COLS, this, world,
-         TILE_WIDTH, TILE_HEIGHT);
-      this.scheduler = new EventScheduler(timeScale);
-
       loadImages(IMAGE_LIST_FILE_NAME, imageStore, this);
-      loadWorld(world, LOAD_FILE_NAME, imageStore);
 
-      scheduleActions(world, scheduler, imageStore);
+      VirtualClock clock = null;
+      EventScheduler scheduler;
+      if (logicalClock)
+      {
+         clock = new VirtualClock(0);
+         scheduler = new EventScheduler(timeScale,
+            createEventQueue(heapQueue), clock, clockAnimation);
+      }
+      else
+      {
+         scheduler = new EventScheduler(timeScale,
+            createEventQueue(heapQueue), new WallClock(), clockAnimation);
+      }
+
+      WorldModel world = loadWorld(loadFileName, imageStore, chunkedWorld,
+         scheduler);
+      if (regionActors)
+      {
+         scheduler.runAsActors(world);
+      }
+      else if (parallelTicks)
+      {
+         scheduler.runInRegions(world);
+      }
+      Checkpointer checkpointer = null;
+      if (checkpointSeconds > 0)
+      {
+         checkpointer = new Checkpointer(world, scheduler,
+            new File(CHECKPOINT_FILE_NAME),
+            (long) (checkpointSeconds * 1000));
+      }
 
-      next_time = System.currentTimeMillis() + TIMER_ACTION_PERIOD;
+      RenderSnapshot snapshot = new RenderSnapshot(VIEW_ROWS, VIEW_COLS);
+      this.view = new WorldView(VIEW_ROWS, VIEW_COLS, this, world, snapshot,
+         imageStore, TILE_WIDTH, TILE_HEIGHT);
+      new Simulation(world, scheduler, clock, checkpointer, snapshot).start();
    }
 
    public void draw()
    {
-      long time = System.currentTimeMillis();
-      if (time >= next_time)
-      {
-         this.scheduler.updateOnTime(time);
-         next_time = time + TIMER_ACTION_PERIOD;
-      }
-
       this.view.drawViewport();
    }
 
@@ -106,12 +155,21 @@ public final class VirtualWorld
       }
    }
 
-   private static Background createDefaultBackground(ImageStore imageStore)
+   static Background createDefaultBackground(ImageStore imageStore)
    {
       return new Background(DEFAULT_IMAGE_NAME,
          imageStore.getImageList(DEFAULT_IMAGE_NAME));
    }
 
+   static EventQueue createEventQueue(boolean heapQueue)
+   {
+      if (heapQueue)
+      {
+         return new HeapEventQueue();
+      }
+      return new TimingWheelEventQueue(WHEEL_TICK_MILLIS);
+   }
+
    private static PImage createImageColored(int width, int height, int color)
    {
       PImage img = new PImage(width, height, RGB);
@@ -130,7 +188,8 @@ public final class VirtualWorld
       try
       {
          Scanner in = new Scanner(new File(filename));
-         imageStore.loadImages(in, screen);
+         imageStore.loadImages(in, screen,
+            ImageCache.open(new File(IMAGE_CACHE_FILE_NAME)));
       }
       catch (FileNotFoundException e)
       {
@@ -138,21 +197,55 @@ public final class VirtualWorld
       }
    }
 
-   private static void loadWorld(WorldModel world, String filename,
-                                 ImageStore imageStore)
+   /*
+      Loads a text save or a binary snapshot.  A snapshot carries its own
+      world size; a text save is loaded into a world of the requested size.
+      With a scheduler the entities are started too, resuming the timers a
+      checkpoint carries instead of scheduling them from scratch.
+   */
+   static WorldModel loadWorld(String filename, ImageStore imageStore,
+      boolean chunked, EventScheduler scheduler)
    {
+      Background defaultBackground = createDefaultBackground(imageStore);
+      if (WorldSnapshot.isSnapshot(filename))
+      {
+         WorldModel world;
+         try
+         {
+            world = WorldSnapshot.load(new File(filename), imageStore,
+               defaultBackground, chunked, scheduler);
+         }
+         catch (IOException e)
+         {
+            System.err.println(e.getMessage());
+            world = new WorldModel(worldRows, worldCols, defaultBackground,
+               chunked);
+         }
+         // the snapshot builds its own world, so the columns move afterwards
+         world.getStore().setOffHeap(offHeapEntities);
+         return world;
+      }
+
+      WorldModel world = new WorldModel(worldRows, worldCols,
+         defaultBackground, chunked);
+      world.getStore().setOffHeap(offHeapEntities);
       try
       {
-         Scanner in = new Scanner(new File(filename));
-         world.load(in, imageStore);
+         SaveFileLoader.load(new File(filename), world, imageStore);
       }
-      catch (FileNotFoundException e)
+      catch (IOException e)
       {
          System.err.println(e.getMessage());
       }
+
+      if (scheduler != null)
+      {
+         scheduleActions(world, scheduler, imageStore);
+      }
+      return world;
    }
 
-   private static void scheduleActions(WorldModel world,
+   static void scheduleActions(WorldModel world,
                                        EventScheduler scheduler, ImageStore imageStore)
    {
       for (Entity entity : world.entities)
@@ -176,8 +269,77 @@ public final class VirtualWorld
             case FASTEST_FLAG:
                timeScale = Math.min(FASTEST_SCALE, timeScale);
                break;
+            case HEAP_FLAG:
+               heapQueue = true;
+               break;
+            case LOGICAL_FLAG:
+               logicalClock = true;
+               break;
+            case EVENT_ANIMATION_FLAG:
+               clockAnimation = false;
+               break;
+            case CHUNKED_FLAG:
+               chunkedWorld = true;
+               break;
+            case PARALLEL_FLAG:
+               parallelTicks = true;
+               break;
+            case ACTORS_FLAG:
+               regionActors = true;
+               break;
+            case OFF_HEAP_FLAG:
+               offHeapEntities = true;
+               break;
+            default:
+               if (arg.startsWith(CHECKPOINT_FLAG))
+               {
+                  checkpointSeconds = parseCheckpointInterval(arg);
+               }
+               else if (!parseWorldSize(arg) && !arg.startsWith("-"))
+               {
+                  loadFileName = arg;
+               }
+               break;
+         }
+      }
+   }
+
+   static double parseCheckpointInterval(String arg)
+   {
+      try
+      {
+         return Double.parseDouble(arg.substring(CHECKPOINT_FLAG.length()));
+      }
+      catch (NumberFormatException e)
+      {
+         System.err.println(String.format("invalid checkpoint interval %s",
+            arg));
+         return 0;
+      }
+   }
+
+   static boolean parseWorldSize(String arg)
+   {
+      if (!arg.startsWith(WORLD_SIZE_FLAG))
+      {
+         return false;
+      }
+
+      String[] size = arg.substring(WORLD_SIZE_FLAG.length()).split("x");
+      if (size.length == 2)
+      {
+         try
+         {
+            worldCols = Integer.parseInt(size[0]);
+            worldRows = Integer.parseInt(size[1]);
+            return true;
+         }
+         catch (NumberFormatException e)
+         {
          }
       }
+      System.err.println(String.format("invalid world size %s", arg));
+      return true;
    }
 
    public static void main(String [] args)
@@ -0,0 +1,7 @@
+final class WallClock implements SimulationClock {
+
+    @Override
+    public long currentTime() {
+        return System.currentTimeMillis();
+    }
+}
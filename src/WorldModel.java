@@ -1,5 +1,4 @@
-import processing.core.PImage;
-
+import java.nio.IntBuffer;
 import java.util.*;
 
 final class WorldModel {
@@ -7,85 +6,314 @@ final class WorldModel {
     public int numCols;
     public Set<Entity> entities;
 
-    private Background background[][];
-    private Entity occupancy[][];
-
-    private static final String BGND_KEY = "background";
-    private static final int BGND_NUM_PROPERTIES = 4;
-    private static final int BGND_ID = 1;
-    private static final int BGND_COL = 2;
-    private static final int BGND_ROW = 3;
-
+    /*
+       Both grids are row-major.  A background cell holds an index into
+       backgroundTypes, and an occupancy cell holds the occupant's store
+       slot plus one, so that 0 means empty.  In chunked mode every grid,
+       the flow fields' included, pages idle chunks out to disk.  Only the
+       grids are paged: entities, the entity set, the store's columns, the
+       spatial index and pending events all stay in memory, so it is terrain
+       and occupancy that can grow past the heap, not the number of
+       entities.
+    */
+    private CellGrid background;
+    private CellGrid occupancy;
+    private List<Background> backgroundTypes;
+    private Map<String, Integer> backgroundIds;
+    // bumped on every background change, so copies can tell they are stale
+    private int backgroundVersion;
+    // every entity in the world has its state here; see EntityView
+    private EntityStore store;
+    private SpatialIndex index;
+    private Map<String, FlowField> flowFields;
+    // bumped whenever a flow field changes, which is also whenever the index
+    // changes for a kind anyone searches for
+    private int fieldVersion;
+    // per row of spatial index buckets, bumped whenever a flow field cell in
+    // it changes
+    private int[] rowFieldVersions;
+    // per spatial index bucket, bumped whenever a cell in it is freed
+    private CellGrid freedVersions;
+    private int bucketCols;
+
+    // the four cells around one, horizontal moves first, as the old greedy
+    // step preferred
+    private static final int[] NEIGHBOUR_DX = {1, -1, 0, 0};
+    private static final int[] NEIGHBOUR_DY = {0, 0, 1, -1};
+
+    // resident chunks per grid in chunked mode, 16MB of cells each
+    private static final int MAX_RESIDENT_CHUNKS = 1024;
+
+    private boolean chunked;
 
     public WorldModel(int numRows, int numCols, Background defaultBackground) {
+        this(numRows, numCols, defaultBackground, false);
+    }
+
+    public WorldModel(int numRows, int numCols, Background defaultBackground,
+                      boolean chunked) {
         this.numRows = numRows;
         this.numCols = numCols;
-        this.background = new Background[numRows][numCols];
-        this.occupancy = new Entity[numRows][numCols];
-        this.entities = new HashSet<>();
+        this.chunked = chunked;
+        this.background = createGrid(0);
+        this.occupancy = createGrid(0);
+        this.backgroundTypes = new ArrayList<>();
+        this.backgroundIds = new HashMap<>();
+        // insertion order, which is also the index's tie-break order
+        this.entities = new LinkedHashSet<>();
+        this.store = new EntityStore();
+        this.index = new SpatialIndex(numRows, numCols);
+        this.bucketCols = (numCols + SpatialIndex.BUCKET_SIZE - 1) / SpatialIndex.BUCKET_SIZE;
+        this.freedVersions = createGrid(
+                (numRows + SpatialIndex.BUCKET_SIZE - 1) / SpatialIndex.BUCKET_SIZE,
+                this.bucketCols, 0);
+        this.rowFieldVersions = new int[
+                (numRows + SpatialIndex.BUCKET_SIZE - 1) / SpatialIndex.BUCKET_SIZE];
+
+        // blobs walk over ore on their way to a vein
+        this.flowFields = new HashMap<>();
+        addFlowField(new FlowField(numRows, numCols,
+                createGrid(FlowField.CELL_FILL), "BLACKSMITH"));
+        addFlowField(new FlowField(numRows, numCols,
+                createGrid(FlowField.CELL_FILL), "ORE"));
+        addFlowField(new FlowField(numRows, numCols,
+                createGrid(FlowField.CELL_FILL), "VEIN", "ORE"));
+
+        // every cell starts out as tile type 0
+        backgroundId(defaultBackground);
+    }
 
-        for (int row = 0; row < numRows; row++) {
-            Arrays.fill(this.background[row], defaultBackground);
+    private CellGrid createGrid(int fill) {
+        return createGrid(this.numRows, this.numCols, fill);
+    }
+
+    private CellGrid createGrid(int numRows, int numCols, int fill) {
+        if (this.chunked) {
+            return new ChunkedCellGrid(numRows, numCols, fill,
+                    MAX_RESIDENT_CHUNKS);
         }
+        return new DenseCellGrid(numRows, numCols, fill);
+    }
+
+    public EntityStore getStore() {
+        return this.store;
+    }
+
+    public boolean isChunked() {
+        return this.chunked;
     }
 
     public Optional<Entity> findNearest(Point pos,
                                         String entityKind) {
-        List<Entity> ofType = new LinkedList<>();
-        for (Entity entity : this.entities) {
-            if (entity.getKind() == entityKind) {
-                ofType.add(entity);
+        return this.index.findNearest(pos, entityKind);
+    }
+
+    private void addFlowField(FlowField field) {
+        this.flowFields.put(field.getTargetKind(), field);
+    }
+
+    // an entity of the target kind next to (x, y), if there is one
+    public Optional<Entity> findAdjacent(int x, int y, String targetKind) {
+        FlowField field = this.flowFields.get(targetKind);
+        if (field.getDistance(x, y) != 1) {
+            return Optional.empty();
+        }
+
+        for (int i = 0; i < NEIGHBOUR_DX.length; i++) {
+            Entity occupant = getOccupantAt(x + NEIGHBOUR_DX[i], y + NEIGHBOUR_DY[i]);
+            if (occupant != null && occupant.getKind() == targetKind) {
+                return Optional.of(occupant);
+            }
+        }
+        return Optional.empty();
+    }
+
+    /*
+       Next cell on a shortest path toward the nearest entity of the target
+       kind, or pos itself when there is no such path or every cell closer
+       along it is taken.
+    */
+    public Point nextStepToward(Point pos, String targetKind) {
+        FlowField field = this.flowFields.get(targetKind);
+        int distance = field.getDistance(pos.x, pos.y);
+        if (distance == FlowField.UNREACHABLE) {
+            return stepBeyondHorizon(pos, targetKind, field);
+        }
+
+        for (int i = 0; i < NEIGHBOUR_DX.length; i++) {
+            int x = pos.x + NEIGHBOUR_DX[i];
+            int y = pos.y + NEIGHBOUR_DY[i];
+            if (withinBounds(x, y) && field.getDistance(x, y) < distance &&
+                    field.canEnter(getOccupantAt(x, y))) {
+                return new Point(x, y);
             }
         }
+        return pos;
+    }
+
+    /*
+       When every target is further away than the field's horizon, head
+       straight for the nearest one until the field picks the agent up.  The
+       horizon counts steps, so a target is inside it when it is no more
+       than HORIZON steps away on an open grid; one the field still cannot
+       reach is walled off, or only reachable the long way round, and the
+       agent stays put as before.
+    */
+    private Point stepBeyondHorizon(Point pos, String targetKind,
+                                    FlowField field) {
+        Optional<Entity> target = findNearest(pos, targetKind);
+        if (!target.isPresent() || Point.manhattanDistance(pos,
+                target.get().getPosition()) <= FlowField.HORIZON) {
+            return pos;
+        }
 
-        return Entity.nearestEntity(ofType, pos);
+        Point destPos = target.get().getPosition();
+        int horiz = Integer.signum(destPos.x - pos.x);
+        Point newPos = new Point(pos.x + horiz, pos.y);
+        if (horiz == 0 || !field.canEnter(getOccupancyCell(newPos))) {
+            int vert = Integer.signum(destPos.y - pos.y);
+            newPos = new Point(pos.x, pos.y + vert);
+            if (vert == 0 || !field.canEnter(getOccupancyCell(newPos))) {
+                newPos = pos;
+            }
+        }
+        return newPos;
     }
 
-    public void removeEntity(Entity entity) {
-        removeEntityAt(entity.getPosition());
+    // whether a step toward the kind follows its flow field, which only looks
+    // at the cells around (x, y), rather than heading for the nearest one
+    public boolean isWithinHorizon(int x, int y, String targetKind) {
+        return this.flowFields.get(targetKind).getDistance(x, y) != FlowField.UNREACHABLE;
     }
 
-    private void removeEntityAt(Point pos) {
-        if (withinBounds(pos)
-                && getOccupancyCell(pos) != null) {
-            Entity entity = getOccupancyCell(pos);
+    // whether one of the four cells around (x, y) holds an entity of the kind
+    public boolean hasNeighbour(int x, int y, String kind) {
+        for (int i = 0; i < NEIGHBOUR_DX.length; i++) {
+            Entity occupant = getOccupantAt(x + NEIGHBOUR_DX[i], y + NEIGHBOUR_DY[i]);
+            if (occupant != null && occupant.getKind() == kind) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // false when the entity was gone already, e.g. taken by someone else
+    public boolean removeEntity(Entity entity) {
+        Point pos = entity.getPosition();
+        return withinBounds(pos) && removeEntityAt(pos, handle(entity));
+    }
+
+    /*
+       The occupant is only removed if the cell still holds the handle, and
+       clearing the cell is what decides it: of two removals of the same
+       entity one wins and the other sees false.
+    */
+    private boolean removeEntityAt(Point pos, int handle) {
+        if (handle == 0 || !this.occupancy.compareAndSet(cellIndex(pos), handle, 0)) {
+            return false;
+        }
+        Entity entity = this.store.getView(handle - 1);
 
          /* this moves the entity just outside of the grid for
             debugging purposes */
-            entity.setPosition(new Point(-1, -1));
-            this.entities.remove(entity);
-            setOccupancyCell(pos, null);
-        }
+        this.index.remove(entity);
+        entity.setPosition(new Point(-1, -1));
+        this.entities.remove(entity);
+        cellFreed(pos);
+        updateFields(pos, null);
+        this.store.free(entity.getSlot());
+        return true;
     }
 
     private boolean withinBounds(Point pos) {
-        return pos.y >= 0 && pos.y < this.numRows &&
-                pos.x >= 0 && pos.x < this.numCols;
+        return withinBounds(pos.x, pos.y);
+    }
+
+    private boolean withinBounds(int x, int y) {
+        return y >= 0 && y < this.numRows && x >= 0 && x < this.numCols;
+    }
+
+    private int cellIndex(Point pos) {
+        return pos.y * this.numCols + pos.x;
     }
 
     private Entity getOccupancyCell(Point pos) {
-        return this.occupancy[pos.y][pos.x];
+        int handle = this.occupancy.get(cellIndex(pos));
+        return handle == 0 ? null : this.store.getView(handle - 1);
     }
 
-    private void setOccupancyCell(Point pos, Entity entity) {
-        this.occupancy[pos.y][pos.x] = entity;
+    // the occupant of (x, y), or null when it is empty or off the grid
+    private Entity getOccupantAt(int x, int y) {
+        if (!withinBounds(x, y)) {
+            return null;
+        }
+        int handle = this.occupancy.get(y * this.numCols + x);
+        return handle == 0 ? null : this.store.getView(handle - 1);
+    }
+
+    private static int handle(Entity entity) {
+        return entity == null ? 0 : entity.getSlot() + 1;
     }
 
-    public void addEntity(Entity entity) {
-        if (withinBounds(entity.getPosition())) {
-            this.setOccupancyCell(entity.getPosition(), entity);
-            this.entities.add(entity);
+    private void updateFields(Point pos, Entity entity) {
+        for (FlowField field : this.flowFields.values()) {
+            if (field.update(pos, entity)) {
+                this.fieldVersion++;
+                for (int row = field.getChangedTop() / SpatialIndex.BUCKET_SIZE;
+                     row <= field.getChangedBottom() / SpatialIndex.BUCKET_SIZE; row++) {
+                    this.rowFieldVersions[row]++;
+                }
+            }
         }
     }
 
-    public void moveEntity(Entity entity, Point pos) {
+    // false when the cell is taken, in which case the entity's slot is freed
+    public boolean addEntity(Entity entity) {
+        Point pos = entity.getPosition();
+        if (!withinBounds(pos) ||
+                !this.occupancy.compareAndSet(cellIndex(pos), 0, handle(entity))) {
+            this.store.free(entity.getSlot());
+            return false;
+        }
+
+        updateFields(pos, entity);
+        if (this.entities.add(entity)) {
+            this.index.add(entity);
+            this.store.setJoined(entity.getSlot());
+        }
+        return true;
+    }
+
+    /*
+       Moves the entity to pos, evicting whoever is there.  The target cell
+       is claimed with a compare-and-set before the old one is let go, so
+       two entities stepping into the same cell at once cannot both get it,
+       and an entity is never off the grid in between.  The one whose claim
+       fails stays where it is and false comes back; callers treat that like
+       a blocked step and try again next period, as the winner will not
+       leave the cell before then.
+    */
+    public boolean moveEntity(Entity entity, Point pos) {
         Point oldPos = entity.getPosition();
-        if (withinBounds(pos) && !pos.equals(oldPos)) {
-            setOccupancyCell(oldPos, null);
-            removeEntityAt(pos);
-            setOccupancyCell(pos, entity);
-            entity.setPosition(pos);
+        if (!withinBounds(pos) || pos.equals(oldPos)) {
+            return false;
         }
+
+        int cell = cellIndex(pos);
+        removeEntityAt(pos, this.occupancy.get(cell));
+        if (!this.occupancy.compareAndSet(cell, 0, handle(entity))) {
+            return false;
+        }
+        this.occupancy.compareAndSet(cellIndex(oldPos), handle(entity), 0);
+        cellFreed(oldPos);
+        // whatever it last saw around itself was somewhere else
+        this.store.setIdleStamp(entity.getSlot(), EntityStore.NOT_IDLE);
+
+        updateFields(oldPos, null);
+        updateFields(pos, entity);
+        this.index.move(entity, oldPos, pos);
+        entity.setPosition(pos);
+        return true;
     }
 
     public Optional<Entity> getOccupant(Point pos) {
@@ -96,6 +324,17 @@ final class WorldModel {
         }
     }
 
+    // the occupant's current sprite at (col, row), for walking a region
+    // cell by cell without making a Point for each
+    public int getOccupantSprite(int col, int row) {
+        if (row < 0 || row >= this.numRows || col < 0 || col >= this.numCols) {
+            return ImageStore.NO_SPRITE;
+        }
+        int handle = this.occupancy.get(row * this.numCols + col);
+        return handle == 0 ? ImageStore.NO_SPRITE :
+                Functions.getCurrentSprite(this.store.getView(handle - 1));
+    }
+
     public boolean isOccupied(Point pos) {
         return withinBounds(pos) &&
                 getOccupancyCell(pos) != null;
@@ -133,167 +372,136 @@ final class WorldModel {
         return Optional.empty();
     }
 
-    // load a bunch of entities onto the map
-    public void load(Scanner in, ImageStore imageStore) {
-        int lineNumber = 0;
-        while (in.hasNextLine()) {
-            try {
-                if (!processLine(in.nextLine(), this, imageStore)) {
-                    System.err.println(String.format("invalid entry on line %d",
-                            lineNumber));
-                }
-            } catch (NumberFormatException e) {
-                System.err.println(String.format("invalid entry on line %d",
-                        lineNumber));
-            } catch (IllegalArgumentException e) {
-                System.err.println(String.format("issue on line %d: %s",
-                        lineNumber, e.getMessage()));
-            }
-            lineNumber++;
-        }
-    }
+    public void tryAddEntity(Entity entity) {
+        if (isOccupied(entity.getPosition())) {
+            this.store.free(entity.getSlot());
 
-    // puts each entity on the map
-    private boolean processLine(String line, WorldModel world,
-                                ImageStore imageStore) {
-        String[] properties = line.split("\\s");
-        if (properties.length > 0) {
-            switch (properties[Entity.PROPERTY_KEY]) {
-                case BGND_KEY:
-                    return parseBackground(properties, world, imageStore);
-                case Entity.MINER_KEY:
-                    return parseMiner(properties, world, imageStore);
-                case Entity.OBSTACLE_KEY:
-                    return parseObstacle(properties, world, imageStore);
-                case Entity.ORE_KEY:
-                    return parseOre(properties, world, imageStore);
-                case Entity.SMITH_KEY:
-                    return parseSmith(properties, world, imageStore);
-                case Entity.VEIN_KEY:
-                    return parseVein(properties, world, imageStore);
-            }
+            // arguably the wrong type of exception, but we are not
+            // defining our own exceptions yet
+            throw new IllegalArgumentException("position occupied");
         }
 
-        return false;
+        addEntity(entity);
     }
 
-    private boolean parseBackground(String[] properties,
-                                    WorldModel world, ImageStore imageStore) {
-        if (properties.length == BGND_NUM_PROPERTIES) {
-            Point pt = new Point(Integer.parseInt(properties[BGND_COL]),
-                    Integer.parseInt(properties[BGND_ROW]));
-            String id = properties[BGND_ID];
-            world.setBackground(pt, new Background(id, imageStore.getImageList(id)));
-        }
-
-        return properties.length == BGND_NUM_PROPERTIES;
-    }
-
-    private boolean parseMiner(String[] properties, WorldModel world,
-                               ImageStore imageStore) {
-        if (properties.length == Entity.MINER_NUM_PROPERTIES) {
-            Point pt = new Point(Integer.parseInt(properties[Entity.MINER_COL]),
-                    Integer.parseInt(properties[Entity.MINER_ROW]));
-            Entity entity = Entity.createMinerNotFull(properties[Entity.MINER_ID],
-                    Integer.parseInt(properties[Entity.MINER_LIMIT]),
-                    pt,
-                    Integer.parseInt(properties[Entity.MINER_ACTION_PERIOD]),
-                    Integer.parseInt(properties[Entity.MINER_ANIMATION_PERIOD]),
-                    imageStore.getImageList(Entity.MINER_KEY));
-            tryAddEntity(world, entity);
+    public void setBackground(Point pos, Background background) {
+        if (withinBounds(pos)) {
+            setBackgroundCell(pos, background);
         }
-
-        return properties.length == Entity.MINER_NUM_PROPERTIES;
     }
 
-    private boolean parseObstacle(String[] properties, WorldModel world,
-                                  ImageStore imageStore) {
-        if (properties.length == Entity.OBSTACLE_NUM_PROPERTIES) {
-            Point pt = new Point(
-                    Integer.parseInt(properties[Entity.OBSTACLE_COL]),
-                    Integer.parseInt(properties[Entity.OBSTACLE_ROW]));
-            Entity entity = Entity.createObstacle(properties[Entity.OBSTACLE_ID],
-                    pt, imageStore.getImageList(Entity.OBSTACLE_KEY));
-            tryAddEntity(world, entity);
-        }
+    private void setBackgroundCell(Point pos, Background background) {
+        this.background.set(cellIndex(pos), backgroundId(background));
+        this.backgroundVersion++;
+    }
 
-        return properties.length == Entity.OBSTACLE_NUM_PROPERTIES;
+    public int getFieldVersion() {
+        return this.fieldVersion;
     }
 
-    private boolean parseOre(String[] properties, WorldModel world,
-                             ImageStore imageStore) {
-        if (properties.length == Entity.ORE_NUM_PROPERTIES) {
-            Point pt = new Point(Integer.parseInt(properties[Entity.ORE_COL]),
-                    Integer.parseInt(properties[Entity.ORE_ROW]));
-            Entity entity = Entity.createOre(properties[Entity.ORE_ID],
-                    pt, Integer.parseInt(properties[Entity.ORE_ACTION_PERIOD]),
-                    imageStore.getImageList(Entity.ORE_KEY));
-            tryAddEntity(world, entity);
+    /*
+       Changes whenever a flow field cell in the rows from firstRow up to
+       endRow does.  Like the freed versions it is kept per row of spatial
+       index buckets, so a change far away leaves it alone.
+    */
+    public int getFieldVersion(int firstRow, int endRow) {
+        int top = Math.max(firstRow, 0) / SpatialIndex.BUCKET_SIZE;
+        int bottom = (Math.min(endRow, this.numRows) - 1) / SpatialIndex.BUCKET_SIZE;
+
+        int version = 0;
+        for (int row = top; row <= bottom; row++) {
+            version += this.rowFieldVersions[row];
         }
-
-        return properties.length == Entity.ORE_NUM_PROPERTIES;
+        return version;
     }
 
-    private boolean parseSmith(String[] properties, WorldModel world,
-                               ImageStore imageStore) {
-        if (properties.length == Entity.SMITH_NUM_PROPERTIES) {
-            Point pt = new Point(Integer.parseInt(properties[Entity.SMITH_COL]),
-                    Integer.parseInt(properties[Entity.SMITH_ROW]));
-            Entity entity = Entity.createBlacksmith(properties[Entity.SMITH_ID],
-                    pt, imageStore.getImageList(Entity.SMITH_KEY));
-            tryAddEntity(world, entity);
+    /*
+       Changes whenever a cell within ORE_REACH of (x, y) is freed.  The count
+       is kept per spatial index bucket, which RegionTicker's regions and
+       TimeWarpEngine's bands are aligned to, so reading it never races the
+       moves of another region or band.
+    */
+    public int getFreedVersion(int x, int y) {
+        int size = SpatialIndex.BUCKET_SIZE;
+        int left = Math.max(x - Entity.ORE_REACH, 0) / size;
+        int right = Math.min(x + Entity.ORE_REACH, this.numCols - 1) / size;
+        int top = Math.max(y - Entity.ORE_REACH, 0) / size;
+        int bottom = Math.min(y + Entity.ORE_REACH, this.numRows - 1) / size;
+
+        int version = 0;
+        for (int row = top; row <= bottom; row++) {
+            for (int col = left; col <= right; col++) {
+                version += this.freedVersions.get(row * this.bucketCols + col);
+            }
         }
+        return version;
+    }
 
-        return properties.length == Entity.SMITH_NUM_PROPERTIES;
+    /*
+       Changes whenever anything an agent at (x, y) steers toward the kind
+       by does.  Within the field's horizon that is the field around the
+       agent, which covers targets appearing or going away, or a cell it
+       could step into.  Beyond it the agent heads for the nearest target
+       anywhere, so any field change counts.  The low bit of the field half
+       tells the two apart.
+    */
+    public long getChangeStamp(int x, int y, String targetKind) {
+        int version = isWithinHorizon(x, y, targetKind) ?
+                getFieldVersion(y - 1, y + 2) << 1 | 1 :
+                this.fieldVersion << 1;
+        return (long) version << 32 | (getFreedVersion(x, y) & 0xffffffffL);
     }
 
-    private boolean parseVein(String[] properties, WorldModel world,
-                              ImageStore imageStore) {
-        if (properties.length == Entity.VEIN_NUM_PROPERTIES) {
-            Point pt = new Point(Integer.parseInt(properties[Entity.VEIN_COL]),
-                    Integer.parseInt(properties[Entity.VEIN_ROW]));
-            Entity entity = Entity.createVein(properties[Entity.VEIN_ID],
-                    pt,
-                    Integer.parseInt(properties[Entity.VEIN_ACTION_PERIOD]),
-                    imageStore.getImageList(Entity.VEIN_KEY));
-            tryAddEntity(world, entity);
-        }
+    private void cellFreed(Point pos) {
+        int bucket = pos.y / SpatialIndex.BUCKET_SIZE * this.bucketCols +
+                pos.x / SpatialIndex.BUCKET_SIZE;
+        this.freedVersions.set(bucket, this.freedVersions.get(bucket) + 1);
+    }
 
-        return properties.length == Entity.VEIN_NUM_PROPERTIES;
+    public int getBackgroundVersion() {
+        return this.backgroundVersion;
     }
 
-    private void tryAddEntity(WorldModel world, Entity entity) {
-        if (isOccupied(entity.getPosition())) {
-            // arguably the wrong type of exception, but we are not
-            // defining our own exceptions yet
-            throw new IllegalArgumentException("position occupied");
-        }
+    public List<Background> getBackgroundTypes() {
+        return this.backgroundTypes;
+    }
 
-        world.addEntity(entity);
+    // the index background cells use for this tile type
+    public int addBackgroundType(Background background) {
+        return backgroundId(background);
     }
 
+    public void loadBackground(int start, IntBuffer cells) {
+        this.background.load(start, cells);
+        this.backgroundVersion++;
+    }
 
-    private void setBackground(Point pos, Background background) {
-        if (withinBounds(pos)) {
-            setBackgroundCell(pos, background);
-        }
+    public void saveBackground(int start, IntBuffer cells) {
+        this.background.save(start, cells);
     }
 
-    private void setBackgroundCell(Point pos, Background background) {
-        this.background[pos.y][pos.x] = background;
+    // tile types are shared by id, so a grid cell only needs the type's index
+    private int backgroundId(Background background) {
+        Integer id = this.backgroundIds.get(background.getId());
+        if (id == null) {
+            id = this.backgroundTypes.size();
+            this.backgroundTypes.add(background);
+            this.backgroundIds.put(background.getId(), id);
+        }
+        return id;
     }
 
 
-    public Optional<PImage> getBackgroundImage(Point pos) {
-        if (withinBounds(pos)) {
-            return Optional.of(Functions.getCurrentImage(getBackgroundCell(pos)));
-        } else {
-            return Optional.empty();
-        }
+    public int getBackgroundSprite(Point pos) {
+        return getBackgroundSprite(pos.x, pos.y);
     }
 
-    private Background getBackgroundCell(Point pos) {
-        return this.background[pos.y][pos.x];
+    public int getBackgroundSprite(int col, int row) {
+        if (row < 0 || row >= this.numRows || col < 0 || col >= this.numCols) {
+            return ImageStore.NO_SPRITE;
+        }
+        return Functions.getCurrentSprite(this.backgroundTypes.get(
+                this.background.get(row * this.numCols + col)));
     }
 
 
@@ -0,0 +1,672 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import processing.core.PConstants;
+import processing.core.PImage;
+
+/*
+   Versioned binary world file.  All numbers are big-endian; strings are a
+   short byte count followed by UTF-8.
+
+      int     MAGIC, VERSION, numRows, numCols
+      int     tile type count, then each tile type's id
+      int     entity count, then for each entity, in world order:
+                 byte kind, id, int x, y, resourceLimit, resourceCount,
+                 actionPeriod, animationPeriod,
+                 long animation phase (since version 2)
+      int     event count, or NO_TIMERS (since version 2), then for each
+              pending event in firing order:
+                 int entity index, byte action, int repeatCount, long delay
+      int[]   background grid, numRows * numCols tile type indexes
+
+   The grid comes last so that its size alone locates it.  Loading maps the
+   file and copies the grid into the world a window of rows at a time,
+   instead of parsing one line per cell.
+
+   A snapshot is captured in memory first and written afterwards, so the
+   writing can happen on another thread while the world moves on.  Only
+   the background grid may be left to be read from the live world while
+   writing, which is what save does.  Checkpoints keep a Mirror of the
+   entities instead of capturing them all each time.
+
+   usage: WorldSnapshot <save file> <snapshot file> [-world=COLSxROWS]
+   converts a text save into a snapshot.
+*/
+final class WorldSnapshot {
+    public static final String SUFFIX = ".snap";
+
+    private static final int MAGIC = 0x5657534e;  // "VWSN"
+    private static final int VERSION = 2;
+    private static final int TIMERS_VERSION = 2;
+    private static final int HEADER_BYTES = 4 * Integer.BYTES;
+
+    // how much of the grid to map or buffer at once
+    private static final int WINDOW_BYTES = 64 << 20;
+
+    // a snapshot taken without a scheduler has no timers to resume
+    private static final int NO_TIMERS = -1;
+    private static final long NO_PHASE = -1;
+    private static final byte ACTIVITY = 0;
+    private static final byte ANIMATION = 1;
+
+    // image list for each entity kind id
+    private static final String[] IMAGE_KEYS = {Entity.SMITH_KEY,
+            Entity.MINER_KEY, Entity.MINER_KEY, Entity.OBSTACLE_KEY,
+            Entity.ORE_KEY, Entity.BLOB_KEY, Entity.QUAKE_KEY, Entity.VEIN_KEY};
+
+    private int numRows;
+    private int numCols;
+    private String[] typeIds;
+
+    private int entityCount;
+    private byte[] kinds;
+    private String[] ids;
+    private int[] xs;
+    private int[] ys;
+    private int[] resourceLimits;
+    private int[] resourceCounts;
+    private int[] actionPeriods;
+    private int[] animationPeriods;
+    private long[] phases;
+
+    private int eventCount;
+    private int[] eventEntities;
+    private byte[] eventActions;
+    private int[] eventRepeats;
+    private long[] eventDelays;
+
+    // a private copy of the grid, or null to read it from liveWorld
+    private int[] background;
+    private WorldModel liveWorld;
+
+    private WorldSnapshot(WorldModel world, EventScheduler scheduler,
+                          int[] background) {
+        this.numRows = world.numRows;
+        this.numCols = world.numCols;
+        this.background = background;
+        this.liveWorld = background == null ? world : null;
+        this.typeIds = typeIds(world);
+
+        captureEntities(world, scheduler);
+        if (scheduler == null) {
+            this.eventCount = NO_TIMERS;
+        } else {
+            captureEvents(world, scheduler);
+        }
+    }
+
+    // for Mirror, which fills in the rest
+    private WorldSnapshot(int numRows, int numCols, String[] typeIds,
+                          int[] background) {
+        this.numRows = numRows;
+        this.numCols = numCols;
+        this.typeIds = typeIds;
+        this.background = background;
+    }
+
+    public static boolean isSnapshot(String fileName) {
+        return fileName.endsWith(SUFFIX);
+    }
+
+    /*
+       Copies everything but the background grid out of the world, and the
+       live events out of the scheduler if there is one.  background is a
+       copy of the grid that nobody will change, or null to read the grid
+       from the world when the snapshot is written.
+    */
+    public static WorldSnapshot capture(WorldModel world,
+                                        EventScheduler scheduler, int[] background) {
+        return new WorldSnapshot(world, scheduler, background);
+    }
+
+    private static String[] typeIds(WorldModel world) {
+        List<Background> types = world.getBackgroundTypes();
+        String[] typeIds = new String[types.size()];
+        for (int i = 0; i < typeIds.length; i++) {
+            typeIds[i] = types.get(i).getId();
+        }
+        return typeIds;
+    }
+
+    public static int[] copyBackground(WorldModel world) {
+        int[] copy = new int[world.numRows * world.numCols];
+        world.saveBackground(0, IntBuffer.wrap(copy));
+        return copy;
+    }
+
+    public static void save(WorldModel world, File file) throws IOException {
+        capture(world, null, null).write(file);
+    }
+
+    private void captureEntities(WorldModel world, EventScheduler scheduler) {
+        EntityStore store = world.getStore();
+        this.entityCount = world.entities.size();
+        this.kinds = new byte[this.entityCount];
+        this.ids = new String[this.entityCount];
+        this.xs = new int[this.entityCount];
+        this.ys = new int[this.entityCount];
+        this.resourceLimits = new int[this.entityCount];
+        this.resourceCounts = new int[this.entityCount];
+        this.actionPeriods = new int[this.entityCount];
+        this.animationPeriods = new int[this.entityCount];
+        this.phases = new long[this.entityCount];
+
+        int i = 0;
+        for (Entity entity : world.entities) {
+            int slot = entity.getSlot();
+            this.kinds[i] = (byte) store.getKind(slot);
+            this.ids[i] = store.getId(slot);
+            this.xs[i] = store.getX(slot);
+            this.ys[i] = store.getY(slot);
+            this.resourceLimits[i] = store.getResourceLimit(slot);
+            this.resourceCounts[i] = store.getResourceCount(slot);
+            this.actionPeriods[i] = store.getActionPeriod(slot);
+            this.animationPeriods[i] = store.getAnimationPeriod(slot);
+
+            this.phases[i] = scheduler == null ? NO_PHASE :
+                    phase(store.getAnimationStart(slot),
+                            scheduler.getClock().currentTime());
+            i++;
+        }
+    }
+
+    private void captureEvents(WorldModel world, EventScheduler scheduler) {
+        Map<Entity, Integer> indexes = new IdentityHashMap<>();
+        int index = 0;
+        for (Entity entity : world.entities) {
+            indexes.put(entity, index++);
+        }
+
+        // events are recycled once fired, so copy them out right away
+        List<long[]> events = new ArrayList<>();
+        scheduler.forEachPendingEvent(event -> {
+            Integer entity = indexes.get(event.entity);
+            if (entity == null) {
+                return;
+            }
+            if (event.action instanceof ActivityAction) {
+                events.add(new long[] {event.time, entity, ACTIVITY, 0});
+            } else if (event.action instanceof AnimationAction) {
+                events.add(new long[] {event.time, entity, ANIMATION,
+                        ((AnimationAction) event.action).getRepeatCount()});
+            }
+        });
+        setEvents(events, scheduler.getClock().currentTime());
+    }
+
+    // how far into its animation a clock-animated entity is
+    private static long phase(long start, long now) {
+        return start == EntityStore.NO_ANIMATION_START ? NO_PHASE :
+                Math.max(0, now - start);
+    }
+
+    // events are {time, entity index, action, repeat count}
+    private void setEvents(List<long[]> events, long now) {
+        events.sort(Comparator.<long[]>comparingLong(e -> e[0])
+                .thenComparingLong(e -> e[1]).thenComparingLong(e -> e[2]));
+
+        this.eventCount = events.size();
+        this.eventEntities = new int[this.eventCount];
+        this.eventActions = new byte[this.eventCount];
+        this.eventRepeats = new int[this.eventCount];
+        this.eventDelays = new long[this.eventCount];
+        for (int i = 0; i < this.eventCount; i++) {
+            long[] event = events.get(i);
+            this.eventDelays[i] = event[0] - now;
+            this.eventEntities[i] = (int) event[1];
+            this.eventActions[i] = (byte) event[2];
+            this.eventRepeats[i] = (int) event[3];
+        }
+    }
+
+    // writes next to the file and then moves it into place, so a crash
+    // mid-write leaves the previous file intact
+    public void write(File file) throws IOException {
+        File partial = new File(file.getPath() + ".partial");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(partial)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(this.numRows);
+            out.writeInt(this.numCols);
+
+            out.writeInt(this.typeIds.length);
+            for (String id : this.typeIds) {
+                writeString(out, id);
+            }
+
+            out.writeInt(this.entityCount);
+            for (int i = 0; i < this.entityCount; i++) {
+                out.writeByte(this.kinds[i]);
+                writeString(out, this.ids[i]);
+                out.writeInt(this.xs[i]);
+                out.writeInt(this.ys[i]);
+                out.writeInt(this.resourceLimits[i]);
+                out.writeInt(this.resourceCounts[i]);
+                out.writeInt(this.actionPeriods[i]);
+                out.writeInt(this.animationPeriods[i]);
+                out.writeLong(this.phases[i]);
+            }
+
+            out.writeInt(this.eventCount);
+            for (int i = 0; i < this.eventCount; i++) {
+                out.writeInt(this.eventEntities[i]);
+                out.writeByte(this.eventActions[i]);
+                out.writeInt(this.eventRepeats[i]);
+                out.writeLong(this.eventDelays[i]);
+            }
+
+            writeGrid(out);
+        }
+        Files.move(partial.toPath(), file.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void writeGrid(DataOutputStream out) throws IOException {
+        int rowsPerWindow = rowsPerWindow(this.numCols);
+        ByteBuffer window = ByteBuffer.allocate(
+                rowsPerWindow * this.numCols * Integer.BYTES);
+        for (int row = 0; row < this.numRows; row += rowsPerWindow) {
+            int start = row * this.numCols;
+            int cells = Math.min(rowsPerWindow, this.numRows - row) * this.numCols;
+            IntBuffer ints = window.asIntBuffer();
+            if (this.background != null) {
+                ints.put(this.background, start, cells);
+            } else {
+                ints.limit(cells);
+                this.liveWorld.saveBackground(start, ints);
+            }
+            out.write(window.array(), 0, cells * Integer.BYTES);
+        }
+    }
+
+    /*
+       With a scheduler, also starts the loaded entities: a snapshot that
+       carries timers resumes each of them where it left off, and any other
+       world is scheduled from scratch.
+    */
+    public static WorldModel load(File file, ImageStore imageStore,
+                                  Background defaultBackground, boolean chunked,
+                                  EventScheduler scheduler) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_BYTES) {
+                throw new IOException(file + ": not a world snapshot");
+            }
+
+            MappedByteBuffer header = channel.map(
+                    FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+            if (header.getInt() != MAGIC) {
+                throw new IOException(file + ": not a world snapshot");
+            }
+            int version = header.getInt();
+            if (version < 1 || version > VERSION) {
+                throw new IOException(String.format(
+                        "%s: unsupported snapshot version %d", file, version));
+            }
+            int numRows = header.getInt();
+            int numCols = header.getInt();
+
+            long gridBytes = (long) numRows * numCols * Integer.BYTES;
+            long gridStart = size - gridBytes;
+            if (gridStart < HEADER_BYTES) {
+                throw new IOException(file + ": snapshot is truncated");
+            }
+
+            WorldModel world = new WorldModel(numRows, numCols,
+                    defaultBackground, chunked);
+            MappedByteBuffer meta = channel.map(FileChannel.MapMode.READ_ONLY,
+                    HEADER_BYTES, gridStart - HEADER_BYTES);
+
+            int[] typeMap = readTypes(meta, world, imageStore);
+            readGrid(channel, gridStart, world, typeMap);
+
+            int count = meta.getInt();
+            Entity[] entities = new Entity[count];
+            long[] phases = new long[count];
+            readEntities(meta, world, imageStore, version, entities, phases);
+
+            int eventCount = version >= TIMERS_VERSION ? meta.getInt() : NO_TIMERS;
+            if (scheduler != null) {
+                if (eventCount == NO_TIMERS) {
+                    for (Entity entity : world.entities) {
+                        scheduler.scheduleActions(entity, world, imageStore);
+                    }
+                } else {
+                    resumeTimers(meta, eventCount, entities, phases, world,
+                            scheduler, imageStore);
+                }
+            }
+            return world;
+        }
+    }
+
+    private static int[] readTypes(ByteBuffer meta, WorldModel world,
+                                   ImageStore imageStore) {
+        int count = meta.getInt();
+        int[] typeMap = new int[count];
+        for (int i = 0; i < count; i++) {
+            String id = readString(meta);
+            typeMap[i] = world.addBackgroundType(
+                    new Background(id, imageStore.getImageList(id)));
+        }
+        return typeMap;
+    }
+
+    private static void readGrid(FileChannel channel, long gridStart,
+                                 WorldModel world, int[] typeMap) throws IOException {
+        // a snapshot loaded into a fresh world keeps its type numbering
+        boolean identity = true;
+        for (int i = 0; i < typeMap.length; i++) {
+            identity &= typeMap[i] == i;
+        }
+
+        int rowsPerWindow = rowsPerWindow(world.numCols);
+        int[] remapped = identity ? null : new int[rowsPerWindow * world.numCols];
+        for (int row = 0; row < world.numRows; row += rowsPerWindow) {
+            int cells = Math.min(rowsPerWindow, world.numRows - row) * world.numCols;
+            IntBuffer window = channel.map(FileChannel.MapMode.READ_ONLY,
+                    gridStart + (long) row * world.numCols * Integer.BYTES,
+                    (long) cells * Integer.BYTES).asIntBuffer();
+
+            if (!identity) {
+                window.get(remapped, 0, cells);
+                for (int i = 0; i < cells; i++) {
+                    remapped[i] = typeMap[remapped[i]];
+                }
+                window = IntBuffer.wrap(remapped, 0, cells);
+            }
+            world.loadBackground(row * world.numCols, window);
+        }
+    }
+
+    private static void readEntities(ByteBuffer meta, WorldModel world,
+                                     ImageStore imageStore, int version,
+                                     Entity[] entities, long[] phases) {
+        for (int i = 0; i < entities.length; i++) {
+            int kind = meta.get();
+            String id = readString(meta);
+            Point position = new Point(meta.getInt(), meta.getInt());
+            int resourceLimit = meta.getInt();
+            int resourceCount = meta.getInt();
+            int actionPeriod = meta.getInt();
+            int animationPeriod = meta.getInt();
+            phases[i] = version >= TIMERS_VERSION ? meta.getLong() : NO_PHASE;
+
+            entities[i] = createEntity(world.getStore(), kind, id, position,
+                    imageStore.getImageList(IMAGE_KEYS[kind]), resourceLimit,
+                    resourceCount, actionPeriod, animationPeriod);
+            world.addEntity(entities[i]);
+        }
+    }
+
+    private static void resumeTimers(ByteBuffer meta, int eventCount,
+                                     Entity[] entities, long[] phases, WorldModel world,
+                                     EventScheduler scheduler, ImageStore imageStore) {
+        long now = scheduler.getClock().currentTime();
+        AnimationClock animationClock = scheduler.getAnimationClock();
+
+        for (int i = 0; i < entities.length; i++) {
+            if (!(entities[i] instanceof Animated)) {
+                continue;
+            }
+            Animated animated = (Animated) entities[i];
+            if (animationClock != null) {
+                animated.startAnimation(animationClock);
+                if (phases[i] != NO_PHASE) {
+                    world.getStore().setAnimationStart(entities[i].getSlot(),
+                            now - phases[i]);
+                }
+            } else if (phases[i] != NO_PHASE) {
+                // it was animated from the clock, so it has no event to resume
+                scheduler.scheduleEvent(entities[i],
+                        animated.getAnimationAction(animated.getRepeatCount()),
+                        animated.getAnimationPeriod());
+            }
+        }
+
+        for (int i = 0; i < eventCount; i++) {
+            Entity entity = entities[meta.getInt()];
+            byte action = meta.get();
+            int repeatCount = meta.getInt();
+            long time = now + meta.getLong();
+
+            if (!world.entities.contains(entity)) {
+                continue;
+            }
+            if (action == ACTIVITY) {
+                scheduler.scheduleEventAt(entity,
+                        ((Active) entity).getActivityAction(world, imageStore), time);
+            } else if (animationClock == null) {
+                scheduler.scheduleEventAt(entity,
+                        ((Animated) entity).getAnimationAction(repeatCount), time);
+            }
+        }
+    }
+
+    private static Entity createEntity(EntityStore store, int kind, String id,
+                                       Point position,
+                                       List<PImage> images, int resourceLimit, int resourceCount,
+                                       int actionPeriod, int animationPeriod) {
+        switch (kind) {
+            case Entity.BLACKSMITH_KIND:
+                return new Blacksmith(store, id, position, images, resourceLimit,
+                        resourceCount, actionPeriod, animationPeriod);
+            case Entity.MINER_KIND:
+                return new Miner(store, id, position, images, resourceLimit,
+                        resourceCount, actionPeriod, animationPeriod);
+            case Entity.MINERFULL_KIND:
+                return new MinerFull(store, id, position, images, resourceLimit,
+                        resourceCount, actionPeriod, animationPeriod);
+            case Entity.OBSTACLE_KIND:
+                return new Obstacle(store, id, position, images, resourceLimit,
+                        resourceCount, actionPeriod, animationPeriod);
+            case Entity.ORE_KIND:
+                return new Ore(store, id, position, images, resourceLimit,
+                        resourceCount, actionPeriod, animationPeriod);
+            case Entity.OREBLOB_KIND:
+                return new OreBlob(store, id, position, images, resourceLimit,
+                        resourceCount, actionPeriod, animationPeriod);
+            case Entity.QUAKE_KIND:
+                return new Quake(store, id, position, images, resourceLimit,
+                        resourceCount, actionPeriod, animationPeriod);
+            case Entity.VEIN_KIND:
+                return new Vein(store, id, position, images, resourceLimit,
+                        resourceCount, actionPeriod, animationPeriod);
+        }
+        throw new IllegalArgumentException(
+                String.format("unknown entity kind %d", kind));
+    }
+
+    private static int rowsPerWindow(int numCols) {
+        return Math.max(1, WINDOW_BYTES / (numCols * Integer.BYTES));
+    }
+
+    private static void writeString(DataOutputStream out, String value)
+            throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer in) {
+        byte[] bytes = new byte[in.getShort() & 0xffff];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println(
+                    "usage: WorldSnapshot <save file> <snapshot file> [-world=COLSxROWS]");
+            return;
+        }
+        for (int i = 2; i < args.length; i++) {
+            VirtualWorld.parseWorldSize(args[i]);
+        }
+
+        // only the image list keys matter here, not the pictures
+        ImageStore imageStore = new ImageStore(new PImage(
+                VirtualWorld.TILE_WIDTH, VirtualWorld.TILE_HEIGHT, PConstants.RGB));
+        WorldModel world = VirtualWorld.loadWorld(args[0], imageStore, false, null);
+        save(world, new File(args[1]));
+    }
+
+    /*
+       The world's entities and their pending events, kept by store slot
+       and brought up to date from the slots changed since the last update
+       (EntityStore.takeChanges), so that what a checkpoint costs the
+       simulation thread grows with what has changed rather than with the
+       world.  The snapshot is put together from it afterwards, on the
+       writer's thread.  Only one of update and snapshot may run at a time.
+    */
+    static final class Mirror {
+        private final WorldModel world;
+        private final int numRows;
+        private final int numCols;
+        private String[] typeIds;
+        private long now;
+
+        // one past the highest slot seen
+        private int size;
+
+        // NOT_JOINED for a slot whose entity is not in the world
+        private long[] joined = new long[0];
+        private byte[] kinds = new byte[0];
+        private String[] ids = new String[0];
+        private int[] xs = new int[0];
+        private int[] ys = new int[0];
+        private int[] resourceLimits = new int[0];
+        private int[] resourceCounts = new int[0];
+        private int[] actionPeriods = new int[0];
+        private int[] animationPeriods = new int[0];
+        private long[] animationStarts = new long[0];
+        private long[] activityDue = new long[0];
+        private long[] animationDue = new long[0];
+        private int[] animationRepeats = new int[0];
+
+        public Mirror(WorldModel world) {
+            this.world = world;
+            this.numRows = world.numRows;
+            this.numCols = world.numCols;
+        }
+
+        // call between ticks, with the scheduler's clock time
+        public void update(long now) {
+            this.now = now;
+            this.typeIds = typeIds(this.world);
+
+            EntityStore store = this.world.getStore();
+            for (int slot : store.takeChanges()) {
+                if (slot >= this.joined.length) {
+                    grow(Math.max(slot + 1, this.joined.length * 2));
+                }
+                this.size = Math.max(this.size, slot + 1);
+
+                // freed, or not added to the world yet
+                this.joined[slot] = store.getJoined(slot);
+                if (this.joined[slot] == EntityStore.NOT_JOINED) {
+                    continue;
+                }
+
+                this.kinds[slot] = (byte) store.getKind(slot);
+                this.ids[slot] = store.getId(slot);
+                this.xs[slot] = store.getX(slot);
+                this.ys[slot] = store.getY(slot);
+                this.resourceLimits[slot] = store.getResourceLimit(slot);
+                this.resourceCounts[slot] = store.getResourceCount(slot);
+                this.actionPeriods[slot] = store.getActionPeriod(slot);
+                this.animationPeriods[slot] = store.getAnimationPeriod(slot);
+                this.animationStarts[slot] = store.getAnimationStart(slot);
+                this.activityDue[slot] = store.getActivityDue(slot);
+                this.animationDue[slot] = store.getAnimationDue(slot);
+                this.animationRepeats[slot] = store.getAnimationRepeats(slot);
+            }
+        }
+
+        // background is a copy of the grid that nobody will change
+        public WorldSnapshot snapshot(int[] background) {
+            List<Integer> order = new ArrayList<>();
+            for (int slot = 0; slot < this.size; slot++) {
+                if (this.joined[slot] != EntityStore.NOT_JOINED) {
+                    order.add(slot);
+                }
+            }
+            order.sort(Comparator.comparingLong(slot -> this.joined[slot]));
+
+            WorldSnapshot snapshot = new WorldSnapshot(this.numRows,
+                    this.numCols, this.typeIds, background);
+            int count = order.size();
+            snapshot.entityCount = count;
+            snapshot.kinds = new byte[count];
+            snapshot.ids = new String[count];
+            snapshot.xs = new int[count];
+            snapshot.ys = new int[count];
+            snapshot.resourceLimits = new int[count];
+            snapshot.resourceCounts = new int[count];
+            snapshot.actionPeriods = new int[count];
+            snapshot.animationPeriods = new int[count];
+            snapshot.phases = new long[count];
+
+            List<long[]> events = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                int slot = order.get(i);
+                snapshot.kinds[i] = this.kinds[slot];
+                snapshot.ids[i] = this.ids[slot];
+                snapshot.xs[i] = this.xs[slot];
+                snapshot.ys[i] = this.ys[slot];
+                snapshot.resourceLimits[i] = this.resourceLimits[slot];
+                snapshot.resourceCounts[i] = this.resourceCounts[slot];
+                snapshot.actionPeriods[i] = this.actionPeriods[slot];
+                snapshot.animationPeriods[i] = this.animationPeriods[slot];
+                snapshot.phases[i] = phase(this.animationStarts[slot], this.now);
+
+                if (this.activityDue[slot] != EntityStore.NO_EVENT) {
+                    events.add(new long[] {this.activityDue[slot], i, ACTIVITY, 0});
+                }
+                if (this.animationDue[slot] != EntityStore.NO_EVENT) {
+                    events.add(new long[] {this.animationDue[slot], i, ANIMATION,
+                            this.animationRepeats[slot]});
+                }
+            }
+            snapshot.setEvents(events, this.now);
+            return snapshot;
+        }
+
+        private void grow(int capacity) {
+            int old = this.joined.length;
+            this.joined = Arrays.copyOf(this.joined, capacity);
+            Arrays.fill(this.joined, old, capacity, EntityStore.NOT_JOINED);
+            this.kinds = Arrays.copyOf(this.kinds, capacity);
+            this.ids = Arrays.copyOf(this.ids, capacity);
+            this.xs = Arrays.copyOf(this.xs, capacity);
+            this.ys = Arrays.copyOf(this.ys, capacity);
+            this.resourceLimits = Arrays.copyOf(this.resourceLimits, capacity);
+            this.resourceCounts = Arrays.copyOf(this.resourceCounts, capacity);
+            this.actionPeriods = Arrays.copyOf(this.actionPeriods, capacity);
+            this.animationPeriods = Arrays.copyOf(this.animationPeriods, capacity);
+            this.animationStarts = Arrays.copyOf(this.animationStarts, capacity);
+            this.activityDue = Arrays.copyOf(this.activityDue, capacity);
+            this.animationDue = Arrays.copyOf(this.animationDue, capacity);
+            this.animationRepeats = Arrays.copyOf(this.animationRepeats, capacity);
+        }
+    }
+}
@@ -1,24 +1,51 @@
 import processing.core.PApplet;
-import processing.core.PImage;
-
-import java.util.Optional;
+import processing.core.PGraphics;
 
+/*
+   Draws the visible region from render snapshots alone; the world itself
+   belongs to the simulation thread.  The viewport is drawn into a buffer
+   that persists between frames, and a new snapshot is diffed against the
+   one last drawn so only the cells that changed are redrawn.  A snapshot
+   taken at a different origin redraws everything, which is one copy out
+   of the pre-rendered background layer plus the occupants.  A frame with
+   no new snapshot draws nothing at all, since the sketch never clears the
+   screen.
+*/
 final class WorldView
 {
    private PApplet screen;
    private WorldModel world;
+   private ImageStore imageStore;
    private int tileWidth;
    private int tileHeight;
    private Viewport viewport;
 
+   private RenderSnapshot snapshot;
+   private BackgroundLayer background;
+   private PGraphics buffer;
+   private RenderSnapshot.Frame next;
+   private RenderSnapshot.Frame drawn;
+
+   // only the world's size is read here, which never changes
    public WorldView(int numRows, int numCols, PApplet screen, WorldModel world,
-      int tileWidth, int tileHeight)
+      RenderSnapshot snapshot, ImageStore imageStore, int tileWidth,
+      int tileHeight)
    {
       this.screen = screen;
       this.world = world;
+      this.imageStore = imageStore;
       this.tileWidth = tileWidth;
       this.tileHeight = tileHeight;
       this.viewport = new Viewport(numRows, numCols);
+
+      this.snapshot = snapshot;
+      this.background = new BackgroundLayer(screen, world.numRows,
+              world.numCols, imageStore, tileWidth, tileHeight);
+      this.buffer = screen.createGraphics(numCols * tileWidth,
+              numRows * tileHeight);
+      this.next = new RenderSnapshot.Frame(numRows, numCols);
+      this.drawn = new RenderSnapshot.Frame(numRows, numCols);
+      snapshot.requestOrigin(this.viewport.col, this.viewport.row);
    }
 
    public void shiftView(int colDelta, int rowDelta) {
@@ -28,35 +55,55 @@ final class WorldView
               this.world.numRows - this.viewport.numRows);
 
       this.viewport.shift(newCol, newRow);
+      this.snapshot.requestOrigin(newCol, newRow);
    }
 
-   private void drawBackground() {
-      for (int row = 0; row < this.viewport.numRows; row++) {
-         for (int col = 0; col < this.viewport.numCols; col++) {
-            Point worldPoint = this.viewport.viewportToWorld(col, row);
-            Optional<PImage> image = this.world.getBackgroundImage(worldPoint);
-            if (image.isPresent()) {
-               this.screen.image(image.get(), col * this.tileWidth,
-                       row * this.tileHeight);
-            }
-         }
+   public void drawViewport() {
+      if (!this.snapshot.read(this.next)) {
+         return;
       }
-   }
+      boolean moved = this.drawn.version < 0 ||
+              this.next.col != this.drawn.col || this.next.row != this.drawn.row;
 
-   private void drawEntities() {
-      for (Entity entity : this.world.entities) {
-         Point pos = entity.getPosition();
+      // bring the background tiles up to date before drawing into the buffer
+      this.background.update(this.next);
 
-         if (this.viewport.contains(pos)) {
-            Point viewPoint = this.viewport.worldToViewport(pos.x, pos.y);
-             this.screen.image(Functions.getCurrentImage(entity),
-                    viewPoint.x * this.tileWidth, viewPoint.y * this.tileHeight);
+      this.buffer.beginDraw();
+      if (moved) {
+         this.background.draw(this.buffer, this.next.col, this.next.row,
+                 this.next.numCols, this.next.numRows, 0, 0);
+      }
+      for (int cell = 0; cell < this.next.occupants.length; cell++) {
+         if (moved) {
+            drawOccupant(cell);
+         } else if (this.next.backgrounds[cell] != this.drawn.backgrounds[cell] ||
+                 this.next.occupants[cell] != this.drawn.occupants[cell]) {
+            drawCell(cell);
          }
       }
+      this.buffer.endDraw();
+      this.drawn.copyFrom(this.next);
+
+      this.screen.image(this.buffer, 0, 0);
    }
 
-   public void drawViewport() {
-      drawBackground();
-      drawEntities();
+   private void drawCell(int cell) {
+      int col = cell % this.next.numCols;
+      int row = cell / this.next.numCols;
+      if (this.next.backgrounds[cell] != ImageStore.NO_SPRITE) {
+         this.background.draw(this.buffer, this.next.col + col,
+                 this.next.row + row, 1, 1,
+                 col * this.tileWidth, row * this.tileHeight);
+      }
+      drawOccupant(cell);
+   }
+
+   private void drawOccupant(int cell) {
+      int sprite = this.next.occupants[cell];
+      if (sprite != ImageStore.NO_SPRITE) {
+         this.imageStore.drawSprite(this.buffer, sprite,
+                 (cell % this.next.numCols) * this.tileWidth,
+                 (cell / this.next.numCols) * this.tileHeight);
+      }
    }
 }